@@ -5,13 +5,12 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousByteChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jbrisbin.netmachine.io.Buffer;
 import org.slf4j.Logger;
@@ -22,30 +21,37 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class BaseMessage<M extends Message> implements Message<M> {
 
-  private final Object outgoingMutex = new Object();
+  public static int MAX_PENDING_WRITES = Integer.parseInt(System.getProperty("netmachine.max_pending_writes",
+                                                                             "" + 1024));
+
+  private final Object replyMutex = new Object();
+  // Writes waiting for the write handler. Any thread may add to it, but only one at a time drains it: whoever moves
+  // drainRequests off zero, and it keeps going until every request made in the meantime has been seen to.
+  private final ConcurrentLinkedQueue<ObjectToWrite> outgoing = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingWrites = new AtomicInteger();
+  private final AtomicInteger drainRequests = new AtomicInteger();
 
   protected final Logger log = LoggerFactory.getLogger(getClass());
 
-  protected Map<String, String> headers = new HashMap<>();
+  protected Headers headers = new Headers();
   protected List<Handler<Void>> completionHandlers = new ArrayList<>();
   protected DelegatingReadHandler readHandler = new DelegatingReadHandler();
   protected List<BufferByteChannel> availableDataChannels = new ArrayList<>();
-  protected WriteHandler<Object> writeHandler = null;
-  protected Stack<ObjectToWrite> outgoing = new Stack<>();
-  protected boolean completed = false;
+  protected volatile WriteHandler<Object> writeHandler = null;
+  protected int maxPendingWrites = MAX_PENDING_WRITES;
+  protected volatile boolean completed = false;
+  // Swapped atomically so each time the transport turns writable again the drain handler is called exactly once
+  protected final AtomicBoolean writable = new AtomicBoolean(true);
+  protected volatile Handler<Void> drainHandler = null;
   protected Message reply;
   protected Handler<Message> replyHandler = null;
 
   @SuppressWarnings({"unchecked"})
   @Override public M header(String name, String value, boolean replace) {
     if (replace) {
-      headers.put(name, value);
+      headers.set(name, value);
     } else {
-      String s = headers.get(name);
-      if (null != s) {
-        s += ", " + value;
-      }
-      headers.put(name, value);
+      headers.add(name, value);
     }
     return (M) this;
   }
@@ -59,11 +65,7 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
   }
 
   @Override public List<String> headers(String name) {
-    String s = headers.get(name);
-    if (null != s) {
-      return Arrays.asList(s.split(","));
-    }
-    return Collections.emptyList();
+    return headers.getAll(name);
   }
 
   @SuppressWarnings({"unchecked"})
@@ -74,7 +76,7 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
     return (M) this;
   }
 
-  @Override public Map<String, String> headers() {
+  @Override public Headers headers() {
     return headers;
   }
 
@@ -88,22 +90,21 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
   @SuppressWarnings({"unchecked"})
   @Override public M completionHandlers(Handler<Void>... completionHandlers) {
     for (Handler<Void> handler : completionHandlers) {
-      if (this.completed) {
-        handler.handle(null);
-      } else {
-        this.completionHandlers.add(handler);
-      }
+      completionHandler(handler);
     }
     return (M) this;
   }
 
   @SuppressWarnings({"unchecked"})
   @Override public M completionHandler(Handler<Void> completionHandler) {
-    if (this.completed) {
-      completionHandler.handle(null);
-    } else {
-      this.completionHandlers.add(completionHandler);
+    // The message may be completed on another thread while the handler is being added
+    synchronized (this.completionHandlers) {
+      if (!this.completed) {
+        this.completionHandlers.add(completionHandler);
+        return (M) this;
+      }
     }
+    completionHandler.handle(null);
     return (M) this;
   }
 
@@ -113,10 +114,33 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
 
   @SuppressWarnings({"unchecked"})
   @Override public M readHandler(Handler<Buffer> handler) {
-    readHandler.handler = handler;
+    readHandler.handler(handler);
     return (M) this;
   }
 
+  /**
+   * Keep whatever is read before a read handler is set and hand it over once one is, rather than dropping it. For
+   * messages whose handler runs on another thread than the one reading them.
+   */
+  protected void holdReads() {
+    readHandler.hold();
+  }
+
+  /**
+   * Hand {@code buffer}, just read by the transport, to the read handler.
+   */
+  protected void handleRead(Buffer buffer) {
+    readHandler.handle(buffer);
+  }
+
+  /**
+   * Release whatever has been held and whatever is read from now on rather than handing it to anyone. For messages
+   * whose handler will never run.
+   */
+  protected void discardReads() {
+    readHandler.discard();
+  }
+
   @Override public Handler<Buffer> readHandler() {
     return readHandler.handler;
   }
@@ -124,12 +148,7 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
   @SuppressWarnings({"unchecked"})
   @Override public M writeHandler(WriteHandler<Object> handler) {
     writeHandler = handler;
-    synchronized (outgoingMutex) {
-      for (ObjectToWrite o : outgoing) {
-        writeHandler.write(o.obj, o.completionHandler);
-      }
-      outgoing.clear();
-    }
+    drain();
     return (M) this;
   }
 
@@ -147,20 +166,96 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
     if (this.completed) {
       throw new IllegalStateException("Cannot write to this response as it's already been completed");
     }
-    if (null != writeHandler) {
-      writeHandler.write(obj, completionHandler);
-    } else {
-      synchronized (outgoingMutex) {
-        outgoing.push(new ObjectToWrite(obj, completionHandler));
-      }
+    if (pendingWrites.incrementAndGet() > maxPendingWrites) {
+      pendingWrites.decrementAndGet();
+      throw new IllegalStateException("Cannot write to this message as it already has " + maxPendingWrites +
+                                          " writes pending");
     }
+    outgoing.offer(new ObjectToWrite(obj, completionHandler));
+    drain();
     return (M) this;
   }
 
+  public int maxPendingWrites() {
+    return maxPendingWrites;
+  }
+
+  /**
+   * @param maxPendingWrites how many writes may queue up waiting for a write handler to be attached before more are
+   *                         refused. Once the write handler has them they no longer count: what keeps memory bounded
+   *                         from then on is a producer that stops when {@link #writeQueueFull()} and waits for the
+   *                         {@link #drainHandler(Handler) drain handler}.
+   */
+  @SuppressWarnings({"unchecked"})
+  public M maxPendingWrites(int maxPendingWrites) {
+    this.maxPendingWrites = maxPendingWrites;
+    return (M) this;
+  }
+
+  /**
+   * @return how many writes are waiting for a write handler
+   */
+  public int pendingWrites() {
+    return pendingWrites.get();
+  }
+
+  @Override public boolean writeQueueFull() {
+    return !writable.get() || pendingWrites.get() >= maxPendingWrites;
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override public M drainHandler(Handler<Void> drainHandler) {
+    this.drainHandler = drainHandler;
+    return (M) this;
+  }
+
+  public boolean writable() {
+    return writable.get();
+  }
+
+  /**
+   * Called by the transport as whatever carries this message's writes fills up past its high water mark ({@literal
+   * false}) and drains back below its low water mark ({@literal true}).
+   */
+  @SuppressWarnings({"unchecked"})
+  public M writable(boolean writable) {
+    boolean wasWritable = this.writable.getAndSet(writable);
+    Handler<Void> handler = drainHandler;
+    if (writable && !wasWritable && null != handler) {
+      handler.handle(null);
+    }
+    return (M) this;
+  }
+
+  /**
+   * Hand queued writes to the write handler in the order they were made.
+   */
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      WriteHandler<Object> handler = writeHandler;
+      if (null != handler) {
+        ObjectToWrite o;
+        while (null != (o = outgoing.poll())) {
+          pendingWrites.decrementAndGet();
+          handler.write(o.obj, o.completionHandler);
+        }
+      }
+      missed = drainRequests.addAndGet(-missed);
+    } while (0 != missed);
+  }
+
   @SuppressWarnings({"unchecked"})
   @Override public M complete() {
-    this.completed = true;
-    for (Handler<Void> handler : completionHandlers) {
+    List<Handler<Void>> handlers;
+    synchronized (completionHandlers) {
+      this.completed = true;
+      handlers = new ArrayList<>(completionHandlers);
+    }
+    for (Handler<Void> handler : handlers) {
       handler.handle(null);
     }
     return (M) this;
@@ -168,7 +263,7 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
 
   @SuppressWarnings({"unchecked"})
   @Override public M replyHandler(Handler<Message> replyHandler) {
-    synchronized (outgoingMutex) {
+    synchronized (replyMutex) {
       this.replyHandler = replyHandler;
       if (null != replyHandler) {
         this.replyHandler.handle(reply);
@@ -179,7 +274,7 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
 
   @SuppressWarnings({"unchecked"})
   @Override public M reply(Message reply) {
-    synchronized (outgoingMutex) {
+    synchronized (replyMutex) {
       this.reply = reply;
       if (null != this.replyHandler) {
         this.replyHandler.handle(reply);
@@ -188,9 +283,9 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
     return (M) this;
   }
 
-  private class ObjectToWrite {
-    Object obj;
-    Handler<Void> completionHandler;
+  private static class ObjectToWrite {
+    final Object obj;
+    final Handler<Void> completionHandler;
 
     private ObjectToWrite(Object obj, Handler<Void> completionHandler) {
       this.obj = obj;
@@ -210,15 +305,61 @@ public abstract class BaseMessage<M extends Message> implements Message<M> {
 
   private class DelegatingReadHandler implements Handler<Buffer> {
 
-    private Handler<Buffer> handler = null;
+    private volatile Handler<Buffer> handler = null;
+    // What's been read while holding for a handler
+    private List<Buffer> held = null;
+    private volatile boolean discarding = false;
+
+    private synchronized void hold() {
+      if (null == handler && null == held) {
+        held = new ArrayList<>();
+      }
+    }
+
+    private synchronized void discard() {
+      discarding = true;
+      if (null != held) {
+        for (Buffer buffer : held) {
+          buffer.release();
+        }
+        held = null;
+      }
+    }
+
+    private synchronized void handler(Handler<Buffer> handler) {
+      if (null != held && null != handler) {
+        // Reads arriving meanwhile wait on this lock, so they're delivered after what was held
+        for (Buffer buffer : held) {
+          handler.handle(buffer);
+        }
+        held = null;
+      }
+      this.handler = handler;
+    }
 
     @Override public void handle(Buffer buffer) {
+      if (discarding) {
+        buffer.release();
+        return;
+      }
       for (BufferByteChannel channel : availableDataChannels) {
         channel.available(buffer);
       }
-      if (null != handler) {
-        handler.handle(buffer);
+      Handler<Buffer> handler = this.handler;
+      if (null == handler) {
+        synchronized (this) {
+          handler = this.handler;
+          if (null == handler) {
+            if (null != held) {
+              held.add(buffer);
+            } else if (discarding) {
+              buffer.release();
+            }
+            return;
+          }
+        }
       }
+      handler.handle(buffer);
     }
 
   }
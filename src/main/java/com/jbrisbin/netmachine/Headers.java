@@ -0,0 +1,199 @@
+package com.jbrisbin.netmachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The headers of a {@link Message}. Names are matched without regard to case, a name may have any number of values,
+ * and headers keep the order they were added in.
+ * <p/>
+ * Headers are kept in parallel arrays alongside a case-insensitive hash of each name, so a lookup only compares the
+ * names whose hash matches. Iterate with {@link #size()}, {@link #name(int)} and {@link #value(int)} to walk every
+ * header without creating anything.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class Headers {
+
+  private String[] names;
+  private String[] values;
+  private int[] hashes;
+  private int size = 0;
+
+  public Headers() {
+    this(8);
+  }
+
+  public Headers(int initialCapacity) {
+    names = new String[initialCapacity];
+    values = new String[initialCapacity];
+    hashes = new int[initialCapacity];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return 0 == size;
+  }
+
+  public String name(int i) {
+    checkIndex(i);
+    return names[i];
+  }
+
+  public String value(int i) {
+    checkIndex(i);
+    return values[i];
+  }
+
+  public boolean contains(String name) {
+    return indexOf(name, hash(name), 0) >= 0;
+  }
+
+  /**
+   * @return the first value of {@code name}, or {@literal null} if there isn't one
+   */
+  public String get(String name) {
+    int i = indexOf(name, hash(name), 0);
+    return (i >= 0 ? values[i] : null);
+  }
+
+  public List<String> getAll(String name) {
+    int h = hash(name);
+    int i = indexOf(name, h, 0);
+    if (i < 0) {
+      return Collections.emptyList();
+    }
+    List<String> all = new ArrayList<>(2);
+    for (; i >= 0; i = indexOf(name, h, i + 1)) {
+      all.add(values[i]);
+    }
+    return all;
+  }
+
+  /**
+   * @return every distinct name, spelled as it was first added
+   */
+  public Set<String> names() {
+    Set<String> distinct = new LinkedHashSet<>();
+    for (int i = 0; i < size; i++) {
+      if (indexOf(names[i], hashes[i], 0) == i) {
+        distinct.add(names[i]);
+      }
+    }
+    return distinct;
+  }
+
+  /**
+   * Add another value for {@code name}, keeping any it already has.
+   */
+  public Headers add(String name, String value) {
+    if (size == names.length) {
+      int capacity = Math.max(4, size * 2);
+      names = Arrays.copyOf(names, capacity);
+      values = Arrays.copyOf(values, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+    }
+    names[size] = name;
+    values[size] = value;
+    hashes[size] = hash(name);
+    size++;
+    return this;
+  }
+
+  /**
+   * Replace every value of {@code name} with {@code value}. The header keeps the position of its first value.
+   */
+  public Headers set(String name, String value) {
+    int h = hash(name);
+    int i = indexOf(name, h, 0);
+    if (i < 0) {
+      return add(name, value);
+    }
+    values[i] = value;
+    removeFrom(name, h, i + 1);
+    return this;
+  }
+
+  /**
+   * @return whether there was anything to remove
+   */
+  public boolean remove(String name) {
+    int h = hash(name);
+    int i = indexOf(name, h, 0);
+    if (i < 0) {
+      return false;
+    }
+    removeFrom(name, h, i);
+    return true;
+  }
+
+  public Headers clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    return this;
+  }
+
+  @Override public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(names[i]).append('=').append(values[i]);
+    }
+    return sb.append('}').toString();
+  }
+
+  private int indexOf(String name, int h, int from) {
+    for (int i = from; i < size; i++) {
+      // Header names are usually the same interned constants, so check identity before comparing characters
+      if (names[i] == name || (hashes[i] == h && names[i].equalsIgnoreCase(name))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeFrom(String name, int h, int from) {
+    int j = from;
+    for (int i = from; i < size; i++) {
+      if (names[i] == name || (hashes[i] == h && names[i].equalsIgnoreCase(name))) {
+        continue;
+      }
+      names[j] = names[i];
+      values[j] = values[i];
+      hashes[j] = hashes[i];
+      j++;
+    }
+    Arrays.fill(names, j, size, null);
+    Arrays.fill(values, j, size, null);
+    size = j;
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Header " + i + " of " + size);
+    }
+  }
+
+  private static int hash(String name) {
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      h = 31 * h + c;
+    }
+    return h;
+  }
+
+}
@@ -11,17 +11,27 @@ import com.jbrisbin.netmachine.io.Buffer;
  */
 public interface Message<T extends Message> {
 
+  /**
+   * Set {@code name} to {@code value}, replacing whatever values it had, or if {@code replace} is {@literal false} add
+   * {@code value} as one more value of {@code name}.
+   */
   T header(String name, String value, boolean replace);
 
   T header(String name, String value);
 
+  /**
+   * @return the first value of {@code name}, matched without regard to case
+   */
   String header(String name);
 
+  /**
+   * @return every value of {@code name}, in the order they were added
+   */
   List<String> headers(String name);
 
   T headers(Map<String, String> headers);
 
-  Map<String, String> headers();
+  Headers headers();
 
   AsynchronousByteChannel io();
 
@@ -39,10 +49,31 @@ public interface Message<T extends Message> {
 
   WriteHandler<Object> writeHandler();
 
+  /**
+   * Write {@code obj}. A {@link Buffer} is handed over along with the caller's reference to it, which is {@link
+   * Buffer#release() released} once it's been written. To write the same Buffer more than once, or one that's cached
+   * or shared, {@link Buffer#retain() retain} it for each write; writing it without a reference of its own fails with
+   * an {@link IllegalStateException}.
+   */
   <V> T write(V obj);
 
+  /**
+   * Write {@code obj} as {@link #write(Object)} does, calling {@code completionHandler} once it's been written.
+   */
   <V> T write(V obj, Handler<Void> completionHandler);
 
+  /**
+   * Whether the other end is falling behind, so further writes would only pile up in memory. A producer that sees
+   * this should stop writing until the {@link #drainHandler(Handler) drain handler} is called.
+   */
+  boolean writeQueueFull();
+
+  /**
+   * Set the handler to call once a message whose {@link #writeQueueFull() write queue was full} can be written to
+   * again.
+   */
+  T drainHandler(Handler<Void> drainHandler);
+
   T replyHandler(Handler<Message> reply);
 
   T reply(Message reply);
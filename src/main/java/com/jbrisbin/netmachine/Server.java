@@ -14,13 +14,19 @@ import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
  */
 public abstract class Server<T extends Server> {
 
+  public static int WRITE_BUFFER_LOW_WATER_MARK = Integer.parseInt(
+      System.getProperty("netmachine.write_buffer_low_water_mark", "" + 32 * 1024)
+  );
+  public static int WRITE_BUFFER_HIGH_WATER_MARK = Integer.parseInt(
+      System.getProperty("netmachine.write_buffer_high_water_mark", "" + 64 * 1024)
+  );
+
   protected String host = "127.0.0.1";
   protected int port = 8080;
-  protected ServerBootstrap server = new ServerBootstrap(
-      new NioServerSocketChannelFactory(ThreadPool.ACCEPTOR_POOL,
-                                        ThreadPool.WORKER_POOL,
-                                        ThreadPool.PROCESSORS)
-  );
+  protected int writeBufferLowWaterMark = WRITE_BUFFER_LOW_WATER_MARK;
+  protected int writeBufferHighWaterMark = WRITE_BUFFER_HIGH_WATER_MARK;
+  protected ThreadTopology threads = ThreadTopology.shared();
+  protected ServerBootstrap server;
   protected Channel channel;
 
   @SuppressWarnings({"unchecked"})
@@ -30,10 +36,44 @@ public abstract class Server<T extends Server> {
     return (T) this;
   }
 
+  /**
+   * Set how many bytes may be queued for writing on a connection before it stops being writable (the high water
+   * mark), and how far the queue must drain before it's writable again (the low water mark).
+   */
+  @SuppressWarnings({"unchecked"})
+  public T writeBufferWaterMarks(int low, int high) {
+    if (low > high) {
+      throw new IllegalArgumentException("Low water mark (" + low + ") cannot be greater than the high water mark (" +
+                                             high + ")");
+    }
+    this.writeBufferLowWaterMark = low;
+    this.writeBufferHighWaterMark = high;
+    return (T) this;
+  }
+
+  public ThreadTopology threads() {
+    return threads;
+  }
+
+  /**
+   * Use {@code threads} to accept connections, do network I/O on them and do file I/O for them, rather than the
+   * {@link ThreadTopology#shared() shared} pools. Only takes effect before the server is started.
+   */
+  @SuppressWarnings({"unchecked"})
+  public T threads(ThreadTopology threads) {
+    this.threads = threads;
+    return (T) this;
+  }
+
   @SuppressWarnings({"unchecked"})
   public T start() {
+    server = new ServerBootstrap(
+        new NioServerSocketChannelFactory(threads.bossExecutor(), threads.ioExecutor(), threads.ioThreads())
+    );
     server.setOption("child.tcpNoDelay", true);
     server.setOption("child.keepAlive", true);
+    server.setOption("child.writeBufferLowWaterMark", writeBufferLowWaterMark);
+    server.setOption("child.writeBufferHighWaterMark", writeBufferHighWaterMark);
     server.setOption("reuseAddress", true);
 
     server.setPipelineFactory(new ChannelPipelineFactory() {
@@ -5,12 +5,18 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.jbrisbin.netmachine.file.FileIoExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
 /**
  * @author Jon Brisbin <jon@jbrisbin.com>
  */
 public class ThreadPool {
 
   public static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+  public static final int FILE_IO_THREADS = Integer.parseInt(System.getProperty("netmachine.file_io_threads",
+                                                                               "" + PROCESSORS));
 
   public static final ExecutorService ACCEPTOR_POOL = Executors.newCachedThreadPool(
       new NetmachineThreadFactory("netmachine-core-")
@@ -19,10 +25,34 @@ public class ThreadPool {
       PROCESSORS,
       new NetmachineThreadFactory("netmachine-worker-")
   );
+  // Kept apart from the workers so a burst of disk I/O can't hold up the network
+  public static final FileIoExecutor FILE_IO_POOL = new FileIoExecutor(
+      FILE_IO_THREADS,
+      new NetmachineThreadFactory("netmachine-file-")
+  );
+  // One timer thread for every server's idle connections, on a daemon thread so it never keeps the JVM up
+  public static final Timer TIMER = new HashedWheelTimer(new NetmachineThreadFactory("netmachine-timer-"));
+
+  /**
+   * @return a factory for daemon threads named {@code prefix} followed by a sequence number
+   */
+  public static ThreadFactory threadFactory(String prefix) {
+    return new NetmachineThreadFactory(prefix);
+  }
+
+  /**
+   * @return a factory for threads named {@code prefix} followed by a sequence number
+   */
+  public static ThreadFactory threadFactory(String prefix, boolean daemon) {
+    NetmachineThreadFactory factory = new NetmachineThreadFactory(prefix);
+    factory.daemon = daemon;
+    return factory;
+  }
 
   private static class NetmachineThreadFactory implements ThreadFactory {
     private AtomicInteger threadNum = new AtomicInteger(0);
     private String prefix = "netmachine-";
+    private boolean daemon = true;
 
     private NetmachineThreadFactory(String prefix) {
       this.prefix = prefix;
@@ -31,7 +61,7 @@ public class ThreadPool {
     @Override public Thread newThread(Runnable runnable) {
       Thread t = new Thread(runnable, prefix + threadNum.incrementAndGet());
       t.setPriority(Thread.NORM_PRIORITY);
-      t.setDaemon(true);
+      t.setDaemon(daemon);
       return t;
     }
   }
@@ -0,0 +1,278 @@
+package com.jbrisbin.netmachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.jbrisbin.netmachine.file.FileIoExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+/**
+ * Which threads a {@link Server} accepts connections, does network I/O and does disk I/O on. The {@link #shared()
+ * shared} topology uses the JVM-wide pools in {@link ThreadPool}; any other gets pools of its own, sized as configured
+ * and started the first time they're asked for, so each tier can be sized for the hardware and disk I/O can't starve
+ * network I/O.
+ * <p/>
+ * The JVM has no say over which core a thread runs on, so anything like affinity has to come from a {@link
+ * #threadFactory(ThreadFactory) thread factory} that pins the threads it creates.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class ThreadTopology {
+
+  private static final ThreadTopology SHARED = new ThreadTopology(true);
+
+  private final boolean shared;
+  private int bossThreads = 1;
+  private int ioThreads = ThreadPool.PROCESSORS;
+  private int fileIoThreads = ThreadPool.FILE_IO_THREADS;
+  private int fileIoQueueSize = FileIoExecutor.QUEUE_SIZE;
+  private FileIoExecutor.Saturation fileIoSaturation = FileIoExecutor.SATURATION;
+  private boolean daemon = true;
+  private String name = "netmachine";
+  private ThreadFactory threadFactory;
+
+  private ExecutorService bossExecutor;
+  private ExecutorService ioExecutor;
+  private FileIoExecutor fileIoExecutor;
+  private HashedWheelTimer timer;
+  // Pools started for a server's own tiers, stopped along with the ones above
+  private final List<ExecutorService> managed = new ArrayList<>();
+
+  public ThreadTopology() {
+    this(false);
+  }
+
+  private ThreadTopology(boolean shared) {
+    this.shared = shared;
+  }
+
+  /**
+   * @return the topology every server uses unless it's given another: the pools in {@link ThreadPool}
+   */
+  public static ThreadTopology shared() {
+    return SHARED;
+  }
+
+  public boolean isShared() {
+    return shared;
+  }
+
+  public int bossThreads() {
+    return bossThreads;
+  }
+
+  /**
+   * @param bossThreads how many threads accept connections. Netty gives each bound socket a boss thread of its own and
+   *                    never more than one, so more than one only helps when several sockets are bound on this
+   *                    topology, and there should be at least as many as there are.
+   */
+  public ThreadTopology bossThreads(int bossThreads) {
+    checkConfigurable();
+    if (bossThreads < 1) {
+      throw new IllegalArgumentException("Need at least one boss thread, not " + bossThreads);
+    }
+    this.bossThreads = bossThreads;
+    return this;
+  }
+
+  public int ioThreads() {
+    return ioThreads;
+  }
+
+  /**
+   * @param ioThreads how many threads read and write connections, each serving its share of them
+   */
+  public ThreadTopology ioThreads(int ioThreads) {
+    checkConfigurable();
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("Need at least one I/O thread, not " + ioThreads);
+    }
+    this.ioThreads = ioThreads;
+    return this;
+  }
+
+  public int fileIoThreads() {
+    return fileIoThreads;
+  }
+
+  /**
+   * @param fileIoThreads how many threads complete file reads and writes
+   */
+  public ThreadTopology fileIoThreads(int fileIoThreads) {
+    checkConfigurable();
+    if (fileIoThreads < 1) {
+      throw new IllegalArgumentException("Need at least one file I/O thread, not " + fileIoThreads);
+    }
+    this.fileIoThreads = fileIoThreads;
+    return this;
+  }
+
+  public int fileIoQueueSize() {
+    return fileIoQueueSize;
+  }
+
+  /**
+   * @param fileIoQueueSize how many file operations may wait for a thread before the {@link
+   *                        #fileIoSaturation(FileIoExecutor.Saturation) saturation policy} kicks in
+   */
+  public ThreadTopology fileIoQueueSize(int fileIoQueueSize) {
+    checkConfigurable();
+    this.fileIoQueueSize = fileIoQueueSize;
+    return this;
+  }
+
+  public FileIoExecutor.Saturation fileIoSaturation() {
+    return fileIoSaturation;
+  }
+
+  public ThreadTopology fileIoSaturation(FileIoExecutor.Saturation fileIoSaturation) {
+    checkConfigurable();
+    this.fileIoSaturation = fileIoSaturation;
+    return this;
+  }
+
+  public boolean daemon() {
+    return daemon;
+  }
+
+  /**
+   * @param daemon whether the threads are daemons, which don't keep the JVM running
+   */
+  public ThreadTopology daemon(boolean daemon) {
+    checkConfigurable();
+    this.daemon = daemon;
+    return this;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @param name what the threads' names start with
+   */
+  public ThreadTopology name(String name) {
+    checkConfigurable();
+    this.name = name;
+    return this;
+  }
+
+  public ThreadFactory threadFactory() {
+    return threadFactory;
+  }
+
+  /**
+   * @param threadFactory creates every thread in this topology, in place of the named {@link #daemon(boolean)
+   *                      daemon} threads it would otherwise use
+   */
+  public ThreadTopology threadFactory(ThreadFactory threadFactory) {
+    checkConfigurable();
+    this.threadFactory = threadFactory;
+    return this;
+  }
+
+  public synchronized ExecutorService bossExecutor() {
+    if (shared) {
+      return ThreadPool.ACCEPTOR_POOL;
+    }
+    if (null == bossExecutor) {
+      bossExecutor = Executors.newFixedThreadPool(bossThreads, threadFactory("boss"));
+    }
+    return bossExecutor;
+  }
+
+  public synchronized ExecutorService ioExecutor() {
+    if (shared) {
+      return ThreadPool.WORKER_POOL;
+    }
+    if (null == ioExecutor) {
+      ioExecutor = Executors.newFixedThreadPool(ioThreads, threadFactory("io"));
+    }
+    return ioExecutor;
+  }
+
+  public synchronized FileIoExecutor fileIoExecutor() {
+    if (shared) {
+      return ThreadPool.FILE_IO_POOL;
+    }
+    if (null == fileIoExecutor) {
+      fileIoExecutor = new FileIoExecutor(fileIoThreads,
+                                          fileIoQueueSize,
+                                          fileIoSaturation,
+                                          FileIoExecutor.MAX_BACKOFF,
+                                          threadFactory("file"));
+    }
+    return fileIoExecutor;
+  }
+
+  /**
+   * @return the timer that reaps idle connections
+   */
+  public synchronized Timer timer() {
+    if (shared) {
+      return ThreadPool.TIMER;
+    }
+    if (null == timer) {
+      timer = new HashedWheelTimer(threadFactory("timer"));
+    }
+    return timer;
+  }
+
+  /**
+   * Start a pool of {@code threads} threads for a tier a server runs alongside these, like the one its handlers run
+   * on. Its threads are made the same way as the topology's own and it's stopped along with them.
+   */
+  public synchronized ExecutorService newExecutor(String tier, int threads) {
+    return manage(Executors.newFixedThreadPool(threads, threadFactory(tier)));
+  }
+
+  /**
+   * Stop {@code executor} along with this topology's own pools. The shared topology is never stopped, so what's given
+   * to it runs for as long as the JVM does, like the pools in {@link ThreadPool}.
+   */
+  public synchronized ExecutorService manage(ExecutorService executor) {
+    if (!shared) {
+      managed.add(executor);
+    }
+    return executor;
+  }
+
+  /**
+   * Stop the pools and timer this topology started, and any it was given to {@link #manage(ExecutorService) manage}.
+   * The shared ones are never stopped.
+   */
+  public synchronized void shutdown() {
+    for (ExecutorService executor : new ExecutorService[]{bossExecutor, ioExecutor, fileIoExecutor}) {
+      if (null != executor) {
+        executor.shutdown();
+      }
+    }
+    for (ExecutorService executor : managed) {
+      executor.shutdown();
+    }
+    if (null != timer) {
+      timer.stop();
+    }
+  }
+
+  private ThreadFactory threadFactory(String tier) {
+    if (null != threadFactory) {
+      return threadFactory;
+    }
+    return ThreadPool.threadFactory(name + "-" + tier + "-", daemon);
+  }
+
+  private synchronized void checkConfigurable() {
+    if (shared) {
+      throw new IllegalStateException("The shared thread topology is configured with system properties");
+    }
+    if (null != bossExecutor || null != ioExecutor || null != fileIoExecutor || null != timer || !managed.isEmpty()) {
+      throw new IllegalStateException("Thread topology can't be changed once its threads have started");
+    }
+  }
+
+}
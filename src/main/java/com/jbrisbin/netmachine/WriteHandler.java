@@ -1,6 +1,10 @@
 package com.jbrisbin.netmachine;
 
 /**
+ * Takes over whatever is written to it. A {@link com.jbrisbin.netmachine.io.Buffer} comes with one reference, which
+ * the handler must {@link com.jbrisbin.netmachine.io.Buffer#release() release} once it's done with it, whether the
+ * write succeeded or not.
+ *
  * @author Jon Brisbin <jon@jbrisbin.com>
  */
 public abstract class WriteHandler<T> implements Handler<T> {
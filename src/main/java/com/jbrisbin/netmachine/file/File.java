@@ -3,6 +3,7 @@ package com.jbrisbin.netmachine.file;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
@@ -10,8 +11,15 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jbrisbin.netmachine.Handler;
@@ -26,50 +34,58 @@ import org.slf4j.LoggerFactory;
  */
 public class File {
 
-  private static final int BUFFER_SIZE = 16 * 1024;
+  public static int READ_CHUNK_SIZE = Integer.parseInt(System.getProperty("netmachine.file.read_chunk_size",
+                                                                        "" + 64 * 1024));
+  public static int READ_AHEAD = Integer.parseInt(System.getProperty("netmachine.file.read_ahead", "" + 4));
+  public static long MAP_WINDOW_SIZE = Long.parseLong(System.getProperty("netmachine.file.map_window_size",
+                                                                         "" + 64 * 1024 * 1024));
+  public static int WRITE_BATCH_SIZE = Integer.parseInt(System.getProperty("netmachine.file.write_batch_size",
+                                                                         "" + 64 * 1024));
+  public static int MAX_WRITES_IN_FLIGHT = Integer.parseInt(
+      System.getProperty("netmachine.file.max_writes_in_flight", "" + 4)
+  );
 
   protected static final Logger log = LoggerFactory.getLogger(File.class);
 
   protected Path path;
   protected AsynchronousFileChannel fileChannel;
+  protected ExecutorService executor;
+  // Where reads and writes are timed, if the file was opened on a pool that keeps track
+  protected FileIoExecutor ioExecutor;
   protected Handler<Buffer> readHandler;
   protected long position = 0;
-  protected boolean completed = false;
+  protected int readChunkSize = READ_CHUNK_SIZE;
+  protected int readAhead = READ_AHEAD;
+  protected boolean mapped = false;
+  protected long mapWindowSize = MAP_WINDOW_SIZE;
+  protected boolean prefetch = false;
+  protected int writeBatchSize = WRITE_BATCH_SIZE;
+  protected int maxWritesInFlight = MAX_WRITES_IN_FLIGHT;
+  protected boolean forceWrites = false;
+  protected volatile boolean completed = false;
+  // Stops a mapped read from mapping or handing over any more windows
+  protected volatile boolean closed = false;
   protected AtomicInteger pendingWrites = new AtomicInteger(0);
+  protected final WriteBehind writeBehind = new WriteBehind();
   protected WriteHandler<Buffer> writeHandler = new WriteHandler<Buffer>() {
-    @Override public void write(Buffer b, final Handler<Void> completionHandler) {
-      pendingWrites.incrementAndGet();
-      long len = b.remaining();
-      fileChannel.write(b.byteBuffer(), position, null, new CompletionHandler<Integer, Void>() {
-        @Override public void completed(Integer written, Void v) {
-          if (pendingWrites.decrementAndGet() == 0 && completed) {
-            try {
-              fileChannel.close();
-            } catch (IOException e) {
-              log.error(e.getMessage(), e);
-            }
-            if (null != completionHandler) {
-              completionHandler.handle(null);
-            }
-            if (null != File.this.completionHandler) {
-              File.this.completionHandler.handle(null);
-            }
-          }
-        }
-
-        @Override public void failed(Throwable throwable, Void v) {
-          pendingWrites.decrementAndGet();
-        }
-      });
-      position += len;
+    @Override public void write(Buffer b, Handler<Void> completionHandler) {
+      writeBehind.write(b, completionHandler);
     }
   };
   protected Handler<Throwable> failureHandler;
   protected Handler<Void> completionHandler;
 
   protected File(Path path, Set<OpenOption> options) throws IOException {
+    this(path, options, ThreadPool.FILE_IO_POOL);
+  }
+
+  protected File(Path path, Set<OpenOption> options, ExecutorService executor) throws IOException {
     this.path = path;
-    fileChannel = AsynchronousFileChannel.open(path, options, ThreadPool.WORKER_POOL);
+    this.executor = executor;
+    fileChannel = AsynchronousFileChannel.open(path, options, executor);
+    if (executor instanceof FileIoExecutor) {
+      ioExecutor = (FileIoExecutor) executor;
+    }
   }
 
   public static File read(Path path, Handler<Buffer> readHandler) throws IOException {
@@ -78,6 +94,16 @@ public class File {
         .readFully();
   }
 
+  /**
+   * Read {@code path} through {@link #mapped(boolean) memory mapping} instead of copying it into buffers.
+   */
+  public static File readMapped(Path path, Handler<Buffer> readHandler) throws IOException {
+    return open(path, StandardOpenOption.READ)
+        .mapped(true)
+        .readHandler(readHandler)
+        .readFully();
+  }
+
   public static File overwrite(Path path) throws IOException {
     return open(path,
                 StandardOpenOption.CREATE,
@@ -86,7 +112,15 @@ public class File {
   }
 
   public static File open(Path path, OpenOption... options) throws IOException {
-    return new File(path, openOptions(options));
+    return open(path, ThreadPool.FILE_IO_POOL, options);
+  }
+
+  /**
+   * Open {@code path}, completing reads and writes on {@code executor}, e.g. a server's {@link
+   * com.jbrisbin.netmachine.ThreadTopology#fileIoExecutor() file I/O threads}.
+   */
+  public static File open(Path path, ExecutorService executor, OpenOption... options) throws IOException {
+    return new File(path, openOptions(options), executor);
   }
 
   public static void transferTo(Path path, WritableByteChannel channel) throws IOException {
@@ -139,6 +173,128 @@ public class File {
     return this;
   }
 
+  public int readChunkSize() {
+    return readChunkSize;
+  }
+
+  /**
+   * @param readChunkSize how many bytes {@link #readFully()} reads at a time, and so the most each {@link Buffer} it
+   *                      hands the read handler holds
+   */
+  public File readChunkSize(int readChunkSize) {
+    if (readChunkSize < 1 || readChunkSize > Buffer.MAX_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Read chunk size must be between 1 and " + Buffer.MAX_BUFFER_SIZE + ", not " +
+                                             readChunkSize);
+    }
+    this.readChunkSize = readChunkSize;
+    return this;
+  }
+
+  public int readAhead() {
+    return readAhead;
+  }
+
+  /**
+   * @param readAhead how many chunks {@link #readFully()} may be reading, or holding until the chunks before them have
+   *                  been handed over, at once
+   */
+  public File readAhead(int readAhead) {
+    if (readAhead < 1) {
+      throw new IllegalArgumentException("Need to read at least one chunk at a time, not " + readAhead);
+    }
+    this.readAhead = readAhead;
+    return this;
+  }
+
+  public boolean mapped() {
+    return mapped;
+  }
+
+  /**
+   * @param mapped whether {@link #readFully()} maps the file into memory and hands the read handler {@link Buffer}s
+   *               over the mapping, a {@link #mapWindowSize(long) window} at a time, rather than reading it
+   */
+  public File mapped(boolean mapped) {
+    this.mapped = mapped;
+    return this;
+  }
+
+  public long mapWindowSize() {
+    return mapWindowSize;
+  }
+
+  /**
+   * @param mapWindowSize how much of the file each mapping covers. A single mapping can't be more than 2 GB.
+   */
+  public File mapWindowSize(long mapWindowSize) {
+    if (mapWindowSize < 1 || mapWindowSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Map window size must be between 1 and " + Integer.MAX_VALUE + ", not " +
+                                             mapWindowSize);
+    }
+    this.mapWindowSize = mapWindowSize;
+    return this;
+  }
+
+  public boolean prefetch() {
+    return prefetch;
+  }
+
+  /**
+   * @param prefetch whether to {@link MappedByteBuffer#load() load} each mapped window into memory before handing it
+   *                 over, so reading it doesn't fault pages in one by one
+   */
+  public File prefetch(boolean prefetch) {
+    this.prefetch = prefetch;
+    return this;
+  }
+
+  public int writeBatchSize() {
+    return writeBatchSize;
+  }
+
+  /**
+   * @param writeBatchSize how many bytes of small writes are gathered into one write to the file. Gathered writes end
+   *                       on multiples of this many bytes into the file.
+   */
+  public File writeBatchSize(int writeBatchSize) {
+    if (writeBatchSize < 1 || writeBatchSize > Buffer.MAX_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Write batch size must be between 1 and " + Buffer.MAX_BUFFER_SIZE + ", not " +
+                                             writeBatchSize);
+    }
+    this.writeBatchSize = writeBatchSize;
+    return this;
+  }
+
+  public int maxWritesInFlight() {
+    return maxWritesInFlight;
+  }
+
+  /**
+   * @param maxWritesInFlight how many writes may be going to the file at once. Writes made while that many are going
+   *                          wait, and are gathered together while they do.
+   */
+  public File maxWritesInFlight(int maxWritesInFlight) {
+    if (maxWritesInFlight < 1) {
+      throw new IllegalArgumentException("Need to allow at least one write in flight, not " + maxWritesInFlight);
+    }
+    this.maxWritesInFlight = maxWritesInFlight;
+    return this;
+  }
+
+  public boolean forceWrites() {
+    return forceWrites;
+  }
+
+  /**
+   * @param forceWrites whether a write only counts as complete once it's been {@link AsynchronousFileChannel#force(boolean)
+   *                    forced} to the disk. Writes that finish while a force is going are forced together by the next
+   *                    one, so there are never more forces than writes.
+   */
+  public File forceWrites(boolean forceWrites) {
+    this.forceWrites = forceWrites;
+    return this;
+  }
+
   public File reset() {
     position = 0;
     return this;
@@ -160,52 +316,637 @@ public class File {
     close(false);
   }
 
+  /**
+   * Close the file. A mapped read stops at the next window and unmaps any window it hasn't handed over yet; windows
+   * already handed to the read handler belong to it and stay mapped until they're {@link Buffer#release() released}.
+   */
   public void close(boolean force) throws IOException {
+    closed = true;
     if (force) {
       fileChannel.close();
     } else {
       this.completed = true;
     }
+    writeBehind.closeIfDone();
   }
 
   public long size() throws IOException {
     return fileChannel.size();
   }
 
+  /**
+   * Read the whole file, handing it to the read handler a chunk at a time. Up to {@link #readAhead() readAhead} chunks
+   * are read at once, each into a pooled {@link Buffer} of its own, and they're handed over in order whichever finishes
+   * first. The read handler owns each Buffer it's given; its memory goes back to the pool when it's {@link
+   * Buffer#release() released}, and never before.
+   */
   public File readFully() throws IOException {
     final long size = fileChannel.size();
     if (null != readHandler) {
-      final ByteBuffer buff = ByteBuffer.allocateDirect(BUFFER_SIZE);
-      CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
-        long position = 0;
+      if (mapped) {
+        readMapped(size);
+      } else {
+        new ReadPipeline(size, readChunkSize, readAhead).start();
+      }
+    }
+    return this;
+  }
 
-        @Override public void completed(Integer read, Void v) {
-          position += read;
-          if (position == size) {
-            File.this.completed = true;
-            if (null != completionHandler) {
-              completionHandler.handle(null);
+  private void readMapped(final long size) {
+    // Prefetching blocks until the pages are in, so mapping happens on the file I/O threads
+    Runnable read = new Runnable() {
+      @Override public void run() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+          for (long start = 0; start < size; start += mapWindowSize) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                  start,
+                                                  Math.min(mapWindowSize, size - start));
+            if (prefetch) {
+              window.load();
+            }
+            if (closed) {
+              // Never handed over, so nothing else can be reading it
+              Unmapper.unmap(window);
+              return;
             }
+            readHandler.handle(new MappedWindow(window));
+          }
+        } catch (IOException | RuntimeException e) {
+          if (null != failureHandler) {
+            failureHandler.handle(e);
           } else {
-            buff.clear();
-            readChunk(position, buff, this);
+            log.error(e.getMessage(), e);
           }
+          return;
+        }
+        completed = true;
+        if (null != completionHandler) {
+          completionHandler.handle(null);
+        }
+      }
+    };
+    try {
+      executor.execute(read);
+    } catch (RejectedExecutionException ree) {
+      if (null != failureHandler) {
+        failureHandler.handle(ree);
+      } else {
+        log.error(ree.getMessage(), ree);
+      }
+    }
+  }
+
+  protected File readChunk(long position, ByteBuffer buff, final CompletionHandler<Integer, Void> handler) {
+    CompletionHandler<Integer, Void> timed = handler;
+    if (null != ioExecutor) {
+      final long start = System.nanoTime();
+      timed = new CompletionHandler<Integer, Void>() {
+        @Override public void completed(Integer read, Void v) {
+          recordLatency(FileIoExecutor.Operation.READ, start);
+          handler.completed(read, v);
         }
 
         @Override public void failed(Throwable throwable, Void v) {
-          if (null != failureHandler) {
-            failureHandler.handle(throwable);
-          }
+          recordLatency(FileIoExecutor.Operation.READ, start);
+          handler.failed(throwable, v);
         }
       };
-      readChunk(0, buff, handler);
+    }
+    try {
+      fileChannel.read(buff, position, null, timed);
+    } catch (RejectedExecutionException ree) {
+      handler.failed(ree, null);
     }
     return this;
   }
 
-  protected File readChunk(long position, ByteBuffer buff, CompletionHandler<Integer, Void> handler) {
-    fileChannel.read(buff, position, null, handler);
-    return this;
+  private void recordLatency(FileIoExecutor.Operation op, long start) {
+    if (null != ioExecutor) {
+      ioExecutor.latency(op).recordSince(start);
+    }
+  }
+
+  /**
+   * Queues up writes and sends them to the file in the background. Small writes are copied together into batches that
+   * end on {@code writeBatchSize} boundaries and go out once a batch fills or nothing else is being written; larger ones
+   * are written as they are. No more than {@code maxWritesInFlight} writes go to the file at once, a write the file
+   * only took part of is carried on from where it stopped, and completion handlers are called in the order their
+   * writes were made, once every byte of them is written (and forced, with {@code forceWrites}).
+   */
+  protected class WriteBehind {
+    // Writes not yet acknowledged, in the order they were made
+    private final ArrayDeque<PendingWrite> writes = new ArrayDeque<>();
+    // Writes with bytes not yet part of a batch
+    private final ArrayDeque<PendingWrite> unbatched = new ArrayDeque<>();
+    // Written, waiting for a force
+    private List<PendingWrite> unforced = new ArrayList<>();
+    // Done, waiting for their completion handlers to be called. Filled in order under the lock and drained by one
+    // thread at a time, like BaseMessage's writes, so handlers are called in order without holding the lock.
+    private final ConcurrentLinkedQueue<PendingWrite> acknowledged = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ackRequests = new AtomicInteger();
+    private int inFlight = 0;
+    private boolean forcing = false;
+    // Whether anything has been written, so closing a file only read from leaves it be
+    private boolean started = false;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    private void write(Buffer b, Handler<Void> completionHandler) {
+      List<PendingWrite> toForce;
+      List<Batch> batches;
+      synchronized (this) {
+        if (failed || closed) {
+          b.release();
+          throw new IllegalStateException("Cannot write to " + path + " as it's " + (failed ? "failed" : "closed"));
+        }
+        started = true;
+        PendingWrite w = new PendingWrite(b, completionHandler, position);
+        long len = w.remaining();
+        position += len;
+        pendingWrites.incrementAndGet();
+        writes.addLast(w);
+        if (len > 0) {
+          unbatched.addLast(w);
+        } else {
+          // Nothing to write, it's done once everything before it is
+          w.batched = true;
+          b.release();
+        }
+        toForce = collectDone();
+        batches = batch();
+      }
+      finishUp(toForce, batches);
+    }
+
+    /**
+     * Move the writes at the head of the line that are done on to be acknowledged, or forced first.
+     *
+     * @return writes to force now, if a force should start
+     */
+    private List<PendingWrite> collectDone() {
+      PendingWrite head;
+      while (null != (head = writes.peekFirst()) && head.batched && 0 == head.parts) {
+        writes.pollFirst();
+        if (forceWrites) {
+          unforced.add(head);
+        } else {
+          acknowledged.offer(head);
+        }
+      }
+      if (forceWrites && !forcing && !unforced.isEmpty()) {
+        forcing = true;
+        List<PendingWrite> toForce = unforced;
+        unforced = new ArrayList<>();
+        return toForce;
+      }
+      return null;
+    }
+
+    private void finishUp(List<PendingWrite> toForce, List<Batch> batches) {
+      acknowledge();
+      if (null != toForce) {
+        force(toForce);
+      }
+      issue(batches);
+      closeIfDone();
+    }
+
+    /**
+     * Make as many batches as may go out right now.
+     */
+    private List<Batch> batch() {
+      List<Batch> batches = new ArrayList<>();
+      while (inFlight < maxWritesInFlight && !unbatched.isEmpty()) {
+        PendingWrite head = unbatched.peekFirst();
+        if (head.bytes.remaining() >= writeBatchSize) {
+          // Big enough to go out without copying. A composite Buffer goes out a segment at a time, each batch holding
+          // its own reference until it's written.
+          batches.add(new Batch(head.offset, head.bytes, head.buffer.retain()).add(head));
+          head.offset += head.bytes.remaining();
+          if (!head.advance()) {
+            unbatched.pollFirst();
+            head.batched = true;
+            head.buffer.release();
+          }
+          inFlight++;
+          continue;
+        }
+
+        // Fill up to the next boundary with whatever follows on in the file
+        long start = head.offset;
+        int len = (int) (writeBatchSize - (start % writeBatchSize));
+        long available = 0;
+        for (PendingWrite w : unbatched) {
+          if (w.offset != start + available || available >= len) {
+            break;
+          }
+          available += w.remaining();
+        }
+        if (available < len && inFlight > 0) {
+          // Let more gather while what's going out finishes
+          break;
+        }
+
+        Buffer staging = new Buffer((int) Math.min(len, available), true);
+        ByteBuffer stage = staging.byteBuffer();
+        Batch batch = new Batch(start, stage, staging);
+        while (stage.hasRemaining()) {
+          PendingWrite w = unbatched.peekFirst();
+          int n = Math.min(stage.remaining(), w.bytes.remaining());
+          ByteBuffer src = w.bytes.duplicate();
+          src.limit(src.position() + n);
+          stage.put(src);
+          w.bytes.position(w.bytes.position() + n);
+          w.offset += n;
+          batch.add(w);
+          if (!w.bytes.hasRemaining() && !w.advance()) {
+            unbatched.pollFirst();
+            w.batched = true;
+            // It's been copied, so the caller's Buffer can go
+            w.buffer.release();
+          }
+        }
+        stage.flip();
+        batches.add(batch);
+        inFlight++;
+      }
+      return batches;
+    }
+
+    private void issue(List<Batch> batches) {
+      for (Batch batch : batches) {
+        write(batch);
+      }
+    }
+
+    private void write(final Batch batch) {
+      final long start = System.nanoTime();
+      try {
+        fileChannel.write(batch.bytes, batch.position + batch.written, null, new CompletionHandler<Integer, Void>() {
+          @Override public void completed(Integer written, Void v) {
+            recordLatency(FileIoExecutor.Operation.WRITE, start);
+            batch.written += written;
+            if (batch.bytes.hasRemaining()) {
+              // The file only took part of it
+              write(batch);
+            } else {
+              written(batch);
+            }
+          }
+
+          @Override public void failed(Throwable throwable, Void v) {
+            recordLatency(FileIoExecutor.Operation.WRITE, start);
+            WriteBehind.this.failed(batch, null, throwable);
+          }
+        });
+      } catch (RejectedExecutionException ree) {
+        // The disk can't keep up
+        failed(batch, null, ree);
+      }
+    }
+
+    private void written(Batch batch) {
+      batch.owner.release();
+      List<PendingWrite> toForce;
+      List<Batch> batches = Collections.emptyList();
+      synchronized (this) {
+        inFlight--;
+        for (PendingWrite w : batch.writes) {
+          w.parts--;
+        }
+        toForce = collectDone();
+        if (!failed) {
+          batches = batch();
+        }
+      }
+      finishUp(toForce, batches);
+    }
+
+    private void force(final List<PendingWrite> toForce) {
+      Runnable force = new Runnable() {
+        @Override public void run() {
+          try {
+            fileChannel.force(false);
+          } catch (IOException e) {
+            failed(null, toForce, e);
+            return;
+          }
+          List<PendingWrite> next = null;
+          synchronized (WriteBehind.this) {
+            acknowledged.addAll(toForce);
+            // Everything written while that force was going is forced together by the next one
+            forcing = !unforced.isEmpty();
+            if (forcing) {
+              next = unforced;
+              unforced = new ArrayList<>();
+            }
+          }
+          acknowledge();
+          if (null != next) {
+            force(next);
+          }
+          closeIfDone();
+        }
+      };
+      try {
+        executor.execute(force);
+      } catch (RejectedExecutionException ree) {
+        // Nothing will force them, so they can never be acknowledged
+        failed(null, toForce, ree);
+      }
+    }
+
+    private void acknowledge() {
+      if (ackRequests.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        PendingWrite w;
+        while (null != (w = acknowledged.poll())) {
+          pendingWrites.decrementAndGet();
+          if (null != w.completionHandler) {
+            w.completionHandler.handle(null);
+          }
+        }
+        missed = ackRequests.addAndGet(-missed);
+      } while (0 != missed);
+    }
+
+    /**
+     * Stop writing. Every write not yet acknowledged fails along with the batch or force that failed: it stops counting
+     * as pending, its Buffer is released if it's still held, and its completion handler is never called. Batches
+     * already going out are left to finish so their memory can go back.
+     *
+     * @param toForce the writes a failed force was for, which are no longer anywhere else
+     */
+    private void failed(Batch batch, List<PendingWrite> toForce, Throwable throwable) {
+      boolean first = false;
+      int dropped = 0;
+      synchronized (this) {
+        if (null != batch) {
+          inFlight--;
+          batch.owner.release();
+        }
+        if (null != toForce) {
+          forcing = false;
+          dropped += toForce.size();
+        }
+        if (!failed) {
+          failed = first = true;
+          for (PendingWrite w : unbatched) {
+            w.buffer.release();
+          }
+          unbatched.clear();
+          dropped += writes.size() + unforced.size();
+          writes.clear();
+          unforced.clear();
+        }
+      }
+      pendingWrites.addAndGet(-dropped);
+      if (first) {
+        if (null != failureHandler) {
+          failureHandler.handle(throwable);
+        } else {
+          log.error(throwable.getMessage(), throwable);
+        }
+      }
+      closeIfDone();
+    }
+
+    /**
+     * Close the file once it's been {@link File#close() closed} and everything written to it is done, or has failed and
+     * nothing is still going out. Only a file whose writes all succeeded calls the completion handler.
+     */
+    private void closeIfDone() {
+      boolean succeeded;
+      synchronized (this) {
+        if (!started || !completed || closed || forcing || 0 != inFlight || !writes.isEmpty()) {
+          return;
+        }
+        closed = true;
+        succeeded = !failed;
+      }
+      try {
+        fileChannel.close();
+      } catch (IOException e) {
+        log.error(e.getMessage(), e);
+      }
+      if (succeeded && null != completionHandler) {
+        completionHandler.handle(null);
+      }
+    }
+  }
+
+  private static class PendingWrite {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Buffer buffer;
+    // The Buffer's own ByteBuffers, so a composite one is written segment by segment rather than copied into one
+    private final ByteBuffer[] segments;
+    private int segment = 0;
+    // The segment its next unbatched byte is in
+    private ByteBuffer bytes;
+    private final Handler<Void> completionHandler;
+    // Where in the file its next unbatched byte goes
+    private long offset;
+    // How many batches still being written hold some of it
+    private int parts = 0;
+    // Whether all of it has gone into batches
+    private boolean batched = false;
+
+    private PendingWrite(Buffer buffer, Handler<Void> completionHandler, long offset) {
+      this.buffer = buffer;
+      this.segments = buffer.byteBuffers();
+      this.bytes = (segments.length > 0 ? segments[0] : EMPTY);
+      this.completionHandler = completionHandler;
+      this.offset = offset;
+      if (!bytes.hasRemaining()) {
+        advance();
+      }
+    }
+
+    private long remaining() {
+      long remaining = 0;
+      for (int i = segment; i < segments.length; i++) {
+        remaining += segments[i].remaining();
+      }
+      return remaining;
+    }
+
+    /**
+     * Move on to the next segment with anything in it.
+     *
+     * @return {@literal false} if there isn't one
+     */
+    private boolean advance() {
+      while (++segment < segments.length) {
+        if (segments[segment].hasRemaining()) {
+          bytes = segments[segment];
+          return true;
+        }
+      }
+      segment = segments.length;
+      bytes = EMPTY;
+      return false;
+    }
+  }
+
+  private static class Batch {
+    private final long position;
+    private final ByteBuffer bytes;
+    // Released once the batch is written
+    private final Buffer owner;
+    private final List<PendingWrite> writes = new ArrayList<>(2);
+    private long written = 0;
+
+    private Batch(long position, ByteBuffer bytes, Buffer owner) {
+      this.position = position;
+      this.bytes = bytes;
+      this.owner = owner;
+    }
+
+    private Batch add(PendingWrite w) {
+      if (writes.isEmpty() || writes.get(writes.size() - 1) != w) {
+        writes.add(w);
+        w.parts++;
+      }
+      return this;
+    }
+  }
+
+  /**
+   * A window of a mapped file, unmapped once it's released.
+   */
+  protected class MappedWindow extends Buffer {
+    private final MappedByteBuffer mapping;
+
+    private MappedWindow(MappedByteBuffer mapping) {
+      // Unmapping needs the buffer map() returned, so readers get a duplicate to move about in
+      super(mapping.duplicate());
+      this.mapping = mapping;
+    }
+
+    @Override protected void deallocate() {
+      Unmapper.unmap(mapping);
+    }
+  }
+
+  /**
+   * Keeps up to {@code readAhead} chunk reads going and delivers the chunks in file order.
+   */
+  private class ReadPipeline {
+    private final long size;
+    private final int chunkSize;
+    private final int readAhead;
+    private final long chunks;
+    // Chunks that have been read but are waiting on earlier ones, indexed by chunk number modulo readAhead
+    private final Buffer[] ready;
+    private long nextToRead = 0;
+    private long nextToDeliver = 0;
+    private boolean failed = false;
+
+    private ReadPipeline(long size, int chunkSize, int readAhead) {
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.readAhead = readAhead;
+      this.chunks = (size + chunkSize - 1) / chunkSize;
+      this.ready = new Buffer[readAhead];
+    }
+
+    private void start() {
+      if (0 == chunks) {
+        finish();
+        return;
+      }
+      readMore();
+    }
+
+    private void readMore() {
+      for (; ; ) {
+        long chunk;
+        synchronized (this) {
+          if (failed || nextToRead >= chunks || nextToRead - nextToDeliver >= readAhead) {
+            return;
+          }
+          chunk = nextToRead++;
+        }
+        read(chunk);
+      }
+    }
+
+    private void read(final long chunk) {
+      final long start = chunk * chunkSize;
+      final int len = (int) Math.min(chunkSize, size - start);
+      final Buffer buffer = new Buffer(len, true);
+      final ByteBuffer bytes = buffer.byteBuffer();
+      readChunk(start, bytes, new CompletionHandler<Integer, Void>() {
+        @Override public void completed(Integer read, Void v) {
+          if (read >= 0 && bytes.hasRemaining()) {
+            // A short read, pick up where it left off
+            readChunk(start + bytes.position(), bytes, this);
+            return;
+          }
+          bytes.flip();
+          chunkRead(chunk, buffer);
+        }
+
+        @Override public void failed(Throwable throwable, Void v) {
+          buffer.release();
+          ReadPipeline.this.failed(throwable);
+        }
+      });
+    }
+
+    private void chunkRead(long chunk, Buffer buffer) {
+      boolean done;
+      synchronized (this) {
+        if (failed) {
+          buffer.release();
+          return;
+        }
+        ready[(int) (chunk % readAhead)] = buffer;
+        // Handing over under the lock keeps the chunks in order when reads finish on different threads
+        int slot;
+        while (null != ready[slot = (int) (nextToDeliver % readAhead)]) {
+          Buffer b = ready[slot];
+          ready[slot] = null;
+          nextToDeliver++;
+          readHandler.handle(b);
+        }
+        done = (nextToDeliver == chunks);
+      }
+      if (done) {
+        finish();
+      } else {
+        readMore();
+      }
+    }
+
+    private void failed(Throwable throwable) {
+      synchronized (this) {
+        if (failed) {
+          return;
+        }
+        failed = true;
+        for (int i = 0; i < ready.length; i++) {
+          if (null != ready[i]) {
+            ready[i].release();
+            ready[i] = null;
+          }
+        }
+      }
+      if (null != failureHandler) {
+        failureHandler.handle(throwable);
+      }
+    }
+
+    private void finish() {
+      File.this.completed = true;
+      if (null != completionHandler) {
+        completionHandler.handle(null);
+      }
+    }
   }
 
   private static Set<OpenOption> openOptions(OpenOption... options) {
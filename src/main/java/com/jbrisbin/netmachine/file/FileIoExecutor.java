@@ -0,0 +1,170 @@
+package com.jbrisbin.netmachine.file;
+
+import java.util.EnumMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jbrisbin.netmachine.util.LatencyHistogram;
+
+/**
+ * A bounded pool for completing file I/O. It never queues more than {@code queueSize} operations; what happens to
+ * the next one once the disk can't keep up is down to its {@link Saturation} policy. Files opened on it record how
+ * long their reads and writes take, and the pool keeps gauges of how deep its queue is.
+ * <p/>
+ * File operations are mostly submitted from network I/O threads, writing a request body to a file say, or from the
+ * file threads themselves as one read leads to the next. So the default is to {@link Saturation#ABORT abort}, which
+ * never holds up the submitting thread.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class FileIoExecutor extends ThreadPoolExecutor {
+
+  public static int QUEUE_SIZE = Integer.parseInt(System.getProperty("netmachine.file_io.queue_size", "" + 1024));
+  public static Saturation SATURATION = Saturation.valueOf(
+      System.getProperty("netmachine.file_io.saturation", Saturation.ABORT.name())
+  );
+  public static long MAX_BACKOFF = Long.parseLong(System.getProperty("netmachine.file_io.max_backoff", "" + 1000));
+
+  /**
+   * What to do with an operation submitted while the queue is full.
+   */
+  public enum Saturation {
+    /**
+     * Refuse it straight away. The file reports a {@link RejectedExecutionException} to its failure handler.
+     */
+    ABORT,
+    /**
+     * Run it on the submitting thread, which slows the submitter down to the disk's pace. Not safe where operations
+     * are submitted from network I/O threads, as it does disk I/O on them and stalls every connection they serve.
+     */
+    CALLER_RUNS,
+    /**
+     * Make the submitter wait for room, backing off exponentially up to the maximum backoff, then refuse it. Not safe
+     * where operations are submitted from network I/O threads, which it parks for up to the maximum backoff.
+     */
+    BACKOFF
+  }
+
+  /**
+   * The operations whose latency is recorded.
+   */
+  public enum Operation {
+    READ, WRITE
+  }
+
+  private final Saturation saturation;
+  private final long maxBackoff;
+  private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public FileIoExecutor(int threads, ThreadFactory threadFactory) {
+    this(threads, QUEUE_SIZE, SATURATION, MAX_BACKOFF, threadFactory);
+  }
+
+  /**
+   * @param maxBackoff how many milliseconds a {@link Saturation#BACKOFF} submitter waits for room in all
+   */
+  public FileIoExecutor(int threads,
+                        int queueSize,
+                        Saturation saturation,
+                        long maxBackoff,
+                        ThreadFactory threadFactory) {
+    super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+    this.saturation = saturation;
+    this.maxBackoff = maxBackoff;
+    for (Operation op : Operation.values()) {
+      latencies.put(op, new LatencyHistogram());
+    }
+    setRejectedExecutionHandler(new SaturationHandler());
+  }
+
+  @Override public void execute(Runnable command) {
+    super.execute(command);
+    int depth = getQueue().size();
+    int max;
+    while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+    }
+  }
+
+  public Saturation saturation() {
+    return saturation;
+  }
+
+  public LatencyHistogram latency(Operation op) {
+    return latencies.get(op);
+  }
+
+  /**
+   * @return how many operations are waiting for a thread
+   */
+  public int queueDepth() {
+    return getQueue().size();
+  }
+
+  /**
+   * @return the deepest the queue has been
+   */
+  public int maxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /**
+   * @return how many operations have been refused
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  private class SaturationHandler implements RejectedExecutionHandler {
+    @Override public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        rejected.incrementAndGet();
+        throw new RejectedExecutionException("File I/O executor has been shut down");
+      }
+      switch (saturation) {
+        case CALLER_RUNS:
+          task.run();
+          return;
+        case BACKOFF:
+          BlockingQueue<Runnable> queue = executor.getQueue();
+          long waited = 0;
+          long wait = 1;
+          try {
+            while (waited < maxBackoff) {
+              long w = Math.min(wait, maxBackoff - waited);
+              if (queue.offer(task, w, TimeUnit.MILLISECONDS)) {
+                return;
+              }
+              waited += w;
+              wait <<= 1;
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          break;
+        default:
+      }
+      rejected.incrementAndGet();
+      throw new RejectedExecutionException("File I/O queue is full (" + executor.getQueue().size() + " waiting)");
+    }
+  }
+
+  @Override public String toString() {
+    return "FileIoExecutor{" +
+        "threads=" + getMaximumPoolSize() +
+        ", queueDepth=" + queueDepth() +
+        ", maxQueueDepth=" + maxQueueDepth() +
+        ", rejected=" + rejected() +
+        ", latencies=" + latencies +
+        '}';
+  }
+
+}
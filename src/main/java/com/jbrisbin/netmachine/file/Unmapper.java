@@ -0,0 +1,65 @@
+package com.jbrisbin.netmachine.file;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unmaps {@link MappedByteBuffer}s straight away rather than whenever the GC gets round to them. There's no public API
+ * for it, so it goes through {@code sun.misc.Unsafe.invokeCleaner} where that exists (Java 9 on) and the buffer's own
+ * {@code cleaner()} before that. If neither works the mapping is left to the GC.
+ * <p/>
+ * Touching a buffer after it's been unmapped crashes the JVM, so only unmap what nothing will read again.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+abstract class Unmapper {
+
+  private static final Logger log = LoggerFactory.getLogger(Unmapper.class);
+
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  /**
+   * @param buffer the buffer {@link java.nio.channels.FileChannel#map} returned, not a slice or duplicate of it
+   * @return whether the mapping was released
+   */
+  static boolean unmap(MappedByteBuffer buffer) {
+    try {
+      if (null != INVOKE_CLEANER) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (null != cleaner) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Couldn't unmap buffer, leaving it to the GC: " + e);
+      return false;
+    }
+  }
+
+}
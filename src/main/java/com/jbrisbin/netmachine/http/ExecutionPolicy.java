@@ -0,0 +1,24 @@
+package com.jbrisbin.netmachine.http;
+
+/**
+ * Where a route's handler runs.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public enum ExecutionPolicy {
+
+  /**
+   * On the I/O thread that read the request. Cheapest, but a handler that blocks holds up every other connection that
+   * thread serves.
+   */
+  INLINE,
+  /**
+   * On the server's bounded pool of business threads.
+   */
+  POOLED,
+  /**
+   * On a virtual thread of its own, where the JVM has them. Falls back to {@link #POOLED} where it doesn't.
+   */
+  VIRTUAL
+
+}
@@ -0,0 +1,73 @@
+package com.jbrisbin.netmachine.http;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs handlers off the I/O threads, refusing more work once {@code maxInFlight} tasks are queued or running rather
+ * than letting the queue grow without bound.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+class ExecutionTier {
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final ExecutorService executor;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  ExecutionTier(ExecutorService executor, int maxInFlight) {
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * @return {@literal false} if the tier is saturated and {@code task} won't be run
+   */
+  boolean execute(final Runnable task) {
+    if (inFlight.incrementAndGet() > maxInFlight) {
+      inFlight.decrementAndGet();
+      rejected.incrementAndGet();
+      return false;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            task.run();
+          } catch (Throwable t) {
+            log.error(t.getMessage(), t);
+          } finally {
+            inFlight.decrementAndGet();
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException ree) {
+      inFlight.decrementAndGet();
+      rejected.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * @return how many tasks are queued or running
+   */
+  int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return how many tasks have been turned away
+   */
+  long rejected() {
+    return rejected.get();
+  }
+
+}
@@ -1,18 +1,26 @@
 package com.jbrisbin.netmachine.http;
 
+import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.jbrisbin.netmachine.http.routing.PathParameters;
+import com.jbrisbin.netmachine.http.util.QueryStringUtils;
+import com.jbrisbin.netmachine.io.Buffer;
+
 /**
  * @author Jon Brisbin <jon@jbrisbin.com>
  */
 public class HttpRequest extends HttpMessage<HttpRequest> {
 
   private Method method;
-  private Map<String, List<String>> queryParameters = new HashMap<>();
-  private Map<String, String> pathParameters = new HashMap<>();
+  private RequestTarget target;
+  private String query;
+  // Only built once parameters are added, until then they're scanned straight out of the query
+  private Map<String, List<String>> queryParameters;
+  private Map<String, String> pathParameters = PathParameters.EMPTY;
 
   public HttpRequest method(Method m) {
     this.method = m;
@@ -23,6 +31,27 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
     return this.method;
   }
 
+  public RequestTarget target() {
+    return target;
+  }
+
+  /**
+   * Set the target from the request line. The request's {@link #uri() URI} and {@link #query() query} come from it
+   * the first time they're asked for.
+   */
+  public HttpRequest target(RequestTarget target) {
+    this.target = target;
+    this.uri = null;
+    return query(null);
+  }
+
+  @Override public URI uri() {
+    if (null == uri && null != target) {
+      uri = target.toURI();
+    }
+    return uri;
+  }
+
   public HttpRequest pathParameters(Map<String, String> pathParameters) {
     this.pathParameters = pathParameters;
     return this;
@@ -32,16 +61,72 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
     return pathParameters;
   }
 
+  public String pathParameter(String name) {
+    return pathParameters.get(name);
+  }
+
+  /**
+   * Read headers from the decoded Netty request rather than copying them, until they're changed or iterated.
+   */
+  HttpRequest adoptHeaders(org.jboss.netty.handler.codec.http.HttpMessage nettyRequest) {
+    headers = new NettyRequestHeaders(nettyRequest);
+    return this;
+  }
+
+  /**
+   * Hold the body until the handler, running on another thread, sets a read handler.
+   */
+  void holdBody() {
+    holdReads();
+  }
+
+  /**
+   * Hand a chunk of the body to the read handler.
+   */
+  void body(Buffer chunk) {
+    handleRead(chunk);
+  }
+
+  /**
+   * Throw the body away, for a request that won't be handled.
+   */
+  void discardBody() {
+    discardReads();
+  }
+
+  public String query() {
+    if (null == query && null != target) {
+      query = target.rawQuery();
+    }
+    return query;
+  }
+
+  /**
+   * Set the raw query string the request's parameters are read from. Nothing is decoded until a parameter is asked
+   * for, and asking for one doesn't decode the others.
+   */
+  public HttpRequest query(String query) {
+    this.query = query;
+    this.queryParameters = null;
+    return this;
+  }
+
   public HttpRequest params(Map<String, List<String>> params) {
-    queryParameters.putAll(params);
+    queryParameters().putAll(params);
     return this;
   }
 
   public List<String> params(String name) {
+    if (null == queryParameters) {
+      return QueryStringUtils.params(query(), name);
+    }
     return queryParameters.get(name);
   }
 
   public String param(String name) {
+    if (null == queryParameters) {
+      return QueryStringUtils.param(query(), name);
+    }
     List<String> values = queryParameters.get(name);
     if (null != values && values.size() > 0) {
       return values.get(0);
@@ -60,7 +145,7 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
   }
 
   public HttpRequest param(String name, String value) {
-    List<String> values = queryParameters.get(name);
+    List<String> values = queryParameters().get(name);
     if (null == values) {
       values = new ArrayList<>();
       queryParameters.put(name, values);
@@ -69,6 +154,13 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
     return this;
   }
 
+  private Map<String, List<String>> queryParameters() {
+    if (null == queryParameters) {
+      queryParameters = new LinkedHashMap<>(QueryStringUtils.parse(query()));
+    }
+    return queryParameters;
+  }
+
   @Override public String toString() {
     return "HttpRequest{" +
         "method=" + method +
@@ -6,22 +6,31 @@ import static org.jboss.netty.handler.codec.http.HttpHeaders.*;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.jbrisbin.netmachine.Handler;
+import com.jbrisbin.netmachine.Headers;
 import com.jbrisbin.netmachine.Message;
 import com.jbrisbin.netmachine.Server;
+import com.jbrisbin.netmachine.ThreadPool;
 import com.jbrisbin.netmachine.WriteHandler;
 import com.jbrisbin.netmachine.http.routing.Route;
+import com.jbrisbin.netmachine.http.routing.RouteMatch;
+import com.jbrisbin.netmachine.http.routing.Router;
 import com.jbrisbin.netmachine.http.routing.UriMatcher;
-import com.jbrisbin.netmachine.http.util.HttpHeaderUtils;
 import com.jbrisbin.netmachine.io.Buffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -30,20 +39,21 @@ import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.DefaultFileRegion;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
-import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
-import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.convert.converter.Converter;
@@ -55,19 +65,66 @@ import org.springframework.core.convert.support.GenericConversionService;
  */
 public class HttpServer extends Server<HttpServer> {
 
+  public static int FLUSH_THRESHOLD = Integer.parseInt(System.getProperty("netmachine.http.flush_threshold",
+                                                                         "" + Buffer.SMALL_BUFFER_SIZE));
+
+  public static int KEEP_ALIVE_TIMEOUT = Integer.parseInt(System.getProperty("netmachine.http.keep_alive_timeout",
+                                                                            "" + 60));
+  public static int MAX_KEEP_ALIVE_REQUESTS = Integer.parseInt(
+      System.getProperty("netmachine.http.max_keep_alive_requests", "" + 1000)
+  );
+  public static int MAX_PIPELINED_REQUESTS = Integer.parseInt(
+      System.getProperty("netmachine.http.max_pipelined_requests", "" + 16)
+  );
+
+  public static ExecutionPolicy EXECUTION_POLICY = ExecutionPolicy.valueOf(
+      System.getProperty("netmachine.http.execution_policy", ExecutionPolicy.INLINE.name())
+  );
+  public static int BUSINESS_THREADS = Integer.parseInt(System.getProperty("netmachine.http.business_threads",
+                                                                          "" + ThreadPool.PROCESSORS * 4));
+  public static int BUSINESS_QUEUE_SIZE = Integer.parseInt(System.getProperty("netmachine.http.business_queue_size",
+                                                                             "" + 1024));
+  public static int MAX_VIRTUAL_REQUESTS = Integer.parseInt(System.getProperty("netmachine.http.max_virtual_requests",
+                                                                              "" + 10000));
+
   private static final String SERVER_VERSION = "netmachine/0.1";
+  private static final String SCHEME = "http";
 
   private final Logger log = LoggerFactory.getLogger(getClass());
-
-  private List<Route<Handler<HttpRequest>>> routes = new ArrayList<>();
-  private ConfigurableConversionService conversionService = new GenericConversionService();
+  private final ThreadLocal<DispatchScope> dispatchScope = new ThreadLocal<DispatchScope>() {
+    @Override protected DispatchScope initialValue() {
+      return new DispatchScope();
+    }
+  };
+
+  private final List<Route<Handler<HttpRequest>>> routes = new ArrayList<>();
+  private final EnumMap<Method, Router<RouteHandler>> routers = new EnumMap<>(Method.class);
+  private ConfigurableConversionService conversionService;
+  private volatile int flushThreshold = FLUSH_THRESHOLD;
+  private final Map<String, String> staticHeaders = new LinkedHashMap<>();
+  private final ConcurrentHashMap<SocketAddress, StaticHeaders> staticHeaderBlocks = new ConcurrentHashMap<>();
+  private volatile int keepAliveTimeout = KEEP_ALIVE_TIMEOUT;
+  private volatile int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
+  private volatile int maxPipelinedRequests = MAX_PIPELINED_REQUESTS;
+  private volatile ExecutionPolicy executionPolicy = EXECUTION_POLICY;
+  private volatile int businessThreads = BUSINESS_THREADS;
+  private volatile int businessQueueSize = BUSINESS_QUEUE_SIZE;
+  private volatile int maxVirtualRequests = MAX_VIRTUAL_REQUESTS;
+  private final EnumMap<ExecutionPolicy, ExecutionTier> tiers = new EnumMap<>(ExecutionPolicy.class);
+  private final AtomicLong rejectedRequests = new AtomicLong();
+  private final AtomicLong newConnections = new AtomicLong();
+  private final AtomicLong reusedConnections = new AtomicLong();
+  private final AtomicLong idleConnectionsClosed = new AtomicLong();
 
   public HttpServer() {
-    addConverters();
+    this(new GenericConversionService());
   }
 
   public HttpServer(ConfigurableConversionService conversionService) {
     this.conversionService = conversionService;
+    for (Method m : Method.values()) {
+      routers.put(m, new Router<RouteHandler>());
+    }
     addConverters();
   }
 
@@ -81,159 +138,441 @@ public class HttpServer extends Server<HttpServer> {
     return this;
   }
 
+  public int flushThreshold() {
+    return flushThreshold;
+  }
+
+  /**
+   * @param flushThreshold how many bytes of small body writes to gather up before sending them as one chunk
+   */
+  public HttpServer flushThreshold(int flushThreshold) {
+    this.flushThreshold = flushThreshold;
+    return this;
+  }
+
+  public int keepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  /**
+   * @param keepAliveTimeout how many seconds a persistent connection may sit idle between requests before it's closed,
+   *                         or 0 to leave idle connections open
+   */
+  public HttpServer keepAliveTimeout(int keepAliveTimeout) {
+    this.keepAliveTimeout = keepAliveTimeout;
+    return this;
+  }
+
+  public int maxKeepAliveRequests() {
+    return maxKeepAliveRequests;
+  }
+
+  /**
+   * @param maxKeepAliveRequests how many requests one connection may serve before it's closed, or 0 for no limit
+   */
+  public HttpServer maxKeepAliveRequests(int maxKeepAliveRequests) {
+    this.maxKeepAliveRequests = maxKeepAliveRequests;
+    return this;
+  }
+
+  public int maxPipelinedRequests() {
+    return maxPipelinedRequests;
+  }
+
+  /**
+   * @param maxPipelinedRequests how many requests one connection may have waiting for their responses, not counting
+   *                             the one being read, before the server stops reading more from it, or 0 for no limit
+   */
+  public HttpServer maxPipelinedRequests(int maxPipelinedRequests) {
+    this.maxPipelinedRequests = maxPipelinedRequests;
+    return this;
+  }
+
+  public ExecutionPolicy executionPolicy() {
+    return executionPolicy;
+  }
+
+  /**
+   * @param executionPolicy where the handlers of routes added without a policy of their own run
+   */
+  public HttpServer executionPolicy(ExecutionPolicy executionPolicy) {
+    this.executionPolicy = executionPolicy;
+    return this;
+  }
+
+  public int businessThreads() {
+    return businessThreads;
+  }
+
+  /**
+   * @param businessThreads how many threads run {@link ExecutionPolicy#POOLED} handlers. Only takes effect before the
+   *                        first such request. The pool is started on the server's {@link #threads() topology} and
+   *                        stopped when it's shut down.
+   */
+  public HttpServer businessThreads(int businessThreads) {
+    this.businessThreads = businessThreads;
+    return this;
+  }
+
+  public int businessQueueSize() {
+    return businessQueueSize;
+  }
+
+  /**
+   * @param businessQueueSize how many {@link ExecutionPolicy#POOLED} requests may wait for a business thread before
+   *                          more are answered with {@code 503 Service Unavailable}. Only takes effect before the
+   *                          first such request.
+   */
+  public HttpServer businessQueueSize(int businessQueueSize) {
+    this.businessQueueSize = businessQueueSize;
+    return this;
+  }
+
+  public int maxVirtualRequests() {
+    return maxVirtualRequests;
+  }
+
+  /**
+   * @param maxVirtualRequests how many {@link ExecutionPolicy#VIRTUAL} requests may be running at once before more
+   *                           are answered with {@code 503 Service Unavailable}. Only takes effect before the first
+   *                           such request.
+   */
+  public HttpServer maxVirtualRequests(int maxVirtualRequests) {
+    this.maxVirtualRequests = maxVirtualRequests;
+    return this;
+  }
+
+  /**
+   * @return how many requests are queued or running off the I/O threads under {@code policy}
+   */
+  public int inFlightRequests(ExecutionPolicy policy) {
+    ExecutionTier tier;
+    synchronized (tiers) {
+      tier = tiers.get(policy);
+    }
+    return (null == tier ? 0 : tier.inFlight());
+  }
+
+  /**
+   * @return how many requests have been answered with {@code 503 Service Unavailable} because their handler's tier
+   *         was saturated
+   */
+  public long rejectedRequests() {
+    return rejectedRequests.get();
+  }
+
+  /**
+   * @return how many requests have been the first on their connection
+   */
+  public long newConnections() {
+    return newConnections.get();
+  }
+
+  /**
+   * @return how many requests have come in on a connection kept alive from an earlier request
+   */
+  public long reusedConnections() {
+    return reusedConnections.get();
+  }
+
+  /**
+   * @return how many persistent connections have been closed for sitting idle
+   */
+  public long idleConnectionsClosed() {
+    return idleConnectionsClosed.get();
+  }
+
+  /**
+   * Add a header to every response that doesn't set it itself. Like {@code Server}, {@code Host} and {@code Date},
+   * it's encoded once rather than for every response.
+   */
+  public HttpServer staticHeader(String name, String value) {
+    synchronized (staticHeaders) {
+      staticHeaders.put(name, value);
+      staticHeaderBlocks.clear();
+    }
+    return this;
+  }
+
+  StaticHeaders staticHeaders(SocketAddress localAddress) {
+    StaticHeaders block = staticHeaderBlocks.get(localAddress);
+    if (null != block) {
+      return block;
+    }
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put(SERVER, SERVER_VERSION);
+    if (localAddress instanceof InetSocketAddress) {
+      // getHostString() never does a reverse lookup
+      InetSocketAddress addr = (InetSocketAddress) localAddress;
+      headers.put(HOST, addr.getHostString() + (80 != addr.getPort() ? ":" + addr.getPort() : ""));
+    }
+    synchronized (staticHeaders) {
+      headers.putAll(staticHeaders);
+      block = new StaticHeaders(headers);
+      staticHeaderBlocks.put(localAddress, block);
+    }
+    return block;
+  }
+
   public List<Route<Handler<HttpRequest>>> routes() {
-    return routes;
+    synchronized (routes) {
+      return Collections.unmodifiableList(new ArrayList<>(routes));
+    }
   }
 
   public HttpServer route(String uriPattern, Handler<HttpRequest> handler) {
-    routes.add(new Route<Handler<HttpRequest>>(new UriMatcher(uriPattern), handler));
+    return route(new UriMatcher(uriPattern), handler);
+  }
+
+  public HttpServer route(String uriPattern, ExecutionPolicy policy, Handler<HttpRequest> handler) {
+    return route(EnumSet.allOf(Method.class), new UriMatcher(uriPattern), policy, handler);
+  }
+
+  public HttpServer route(UriMatcher uriMatcher, Handler<HttpRequest> handler) {
+    return route(EnumSet.allOf(Method.class), uriMatcher, handler);
+  }
+
+  public HttpServer route(Method method, String uriPattern, Handler<HttpRequest> handler) {
+    return route(method, new UriMatcher(uriPattern), handler);
+  }
+
+  public HttpServer route(Method method, UriMatcher uriMatcher, Handler<HttpRequest> handler) {
+    return route(EnumSet.of(method), uriMatcher, handler);
+  }
+
+  public HttpServer route(Method method, String uriPattern, ExecutionPolicy policy, Handler<HttpRequest> handler) {
+    return route(EnumSet.of(method), new UriMatcher(uriPattern), policy, handler);
+  }
+
+  public HttpServer route(EnumSet<Method> methods, String uriPattern, Handler<HttpRequest> handler) {
+    return route(methods, new UriMatcher(uriPattern), handler);
+  }
+
+  public HttpServer route(EnumSet<Method> methods, UriMatcher uriMatcher, Handler<HttpRequest> handler) {
+    return route(methods, uriMatcher, null, handler);
+  }
+
+  /**
+   * Route requests for {@code methods} matching {@code uriMatcher} to {@code handler}, running it as {@code policy}
+   * says. A {@literal null} policy means the server's {@link #executionPolicy() default}, whatever it is when a
+   * request comes in.
+   */
+  public HttpServer route(EnumSet<Method> methods,
+                          UriMatcher uriMatcher,
+                          ExecutionPolicy policy,
+                          Handler<HttpRequest> handler) {
+    Route<Handler<HttpRequest>> route = new Route<>(uriMatcher, handler);
+    Route<RouteHandler> dispatchRoute = new Route<>(uriMatcher, new RouteHandler(handler, policy));
+    synchronized (routes) {
+      routes.add(route);
+      for (Method m : methods) {
+        routers.get(m).add(dispatchRoute);
+      }
+    }
     return this;
   }
 
+  /**
+   * @return the {@code Allow} header for a 405: every method with a route matching {@code path}, whichever pattern
+   *         matched it, or {@literal null} if no method has one
+   */
+  String allowHeader(String path) {
+    StringBuilder sb = null;
+    for (Map.Entry<Method, Router<RouteHandler>> entry : routers.entrySet()) {
+      if (null == entry.getValue().match(path)) {
+        continue;
+      }
+      if (null == sb) {
+        sb = new StringBuilder();
+      } else {
+        sb.append(", ");
+      }
+      sb.append(entry.getKey().name());
+    }
+    return (null != sb ? sb.toString() : null);
+  }
+
   private void addConverters() {
     if (!conversionService.canConvert(String.class, HttpChunk.class)) {
       conversionService.addConverter(StringToHttpChunkConverter.INSTANCE);
     }
   }
 
-  @Override protected void configurePipeline(ChannelPipeline pipeline) {
-    pipeline.addLast("decoder", new HttpRequestDecoder());
-    pipeline.addLast("encoder", new HttpResponseEncoder());
-    pipeline.addLast("chunker", new ChunkedWriteHandler());
-    pipeline.addLast("handler", new HttpServerHandler());
+  /**
+   * @return the tier that runs {@code policy} handlers, started the first time it's needed
+   */
+  private ExecutionTier tier(ExecutionPolicy policy) {
+    synchronized (tiers) {
+      ExecutionTier tier = tiers.get(policy);
+      if (null == tier) {
+        if (ExecutionPolicy.VIRTUAL == policy) {
+          ExecutorService virtual = virtualThreadExecutor();
+          if (null == virtual) {
+            log.info("Virtual threads aren't available, running VIRTUAL handlers on the business pool");
+            tier = tier(ExecutionPolicy.POOLED);
+          } else {
+            tier = new ExecutionTier(threads().manage(virtual), maxVirtualRequests);
+          }
+        } else {
+          ExecutorService pool = threads().newExecutor("business", businessThreads);
+          tier = new ExecutionTier(pool, businessThreads + businessQueueSize);
+        }
+        tiers.put(policy, tier);
+      }
+      return tier;
+    }
   }
 
-  private URI createURI(org.jboss.netty.handler.codec.http.HttpRequest request) {
-    String uri = request.getProtocolVersion()
-                        .getProtocolName()
-                        .toLowerCase()
-        + "://"
-        + request.getHeader("Host")
-        + request.getUri();
+  private static ExecutorService virtualThreadExecutor() {
+    // Looked up by name so the server still builds and runs on JVMs without virtual threads
     try {
-      return new URI(uri);
-    } catch (URISyntaxException e) {
-      throw new IllegalStateException(e);
+      java.lang.reflect.Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
     }
   }
 
-  private ChannelFuture writeResponse(HttpResponse response, Channel channel) {
-    response.header(SERVER, SERVER_VERSION);
-
-    // Make sure Date and Host headers exist in the reply
-    if (null == response.header(DATE)) {
-      response.header(DATE, HttpHeaderUtils.formatDate(Calendar.getInstance().getTime()));
-    }
-    if (null == response.header(HOST)) {
-      InetSocketAddress addr = ((InetSocketAddress) channel.getLocalAddress());
-      String host = addr.getHostName() + (80 != addr.getPort() ? ":" + addr.getPort() : "");
-      response.header(HOST, host);
+  @Override protected void configurePipeline(ChannelPipeline pipeline) {
+    if (keepAliveTimeout > 0) {
+      pipeline.addLast("idle", new IdleStateHandler(threads().timer(), 0, 0, keepAliveTimeout));
     }
+    pipeline.addLast("decoder", new HttpRequestDecoder());
+    pipeline.addLast("encoder", new StaticHeadersEncoder(this));
+    pipeline.addLast("chunker", new ChunkedWriteHandler());
+    pipeline.addLast("handler", new HttpServerHandler());
+  }
 
+  private ChannelFuture writeResponse(HttpResponse response, ResponseSequencer.Slot slot) {
+    // Server, Host, Date and any other static headers are appended by the StaticHeadersEncoder
     org.jboss.netty.handler.codec.http.HttpResponse nettyResponse =
         new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(response.statusCode()));
-    for (Map.Entry<String, String> header : response.headers().entrySet()) {
-      nettyResponse.setHeader(header.getKey(), header.getValue());
+    Headers headers = response.headers();
+    for (int i = 0; i < headers.size(); i++) {
+      nettyResponse.addHeader(headers.name(i), headers.value(i));
+    }
+
+    return slot.write(nettyResponse);
+  }
+
+  /**
+   * Write a response that has no body, closing the connection after it unless it's to be kept alive.
+   */
+  private void writeBodilessResponse(HttpResponse response, ResponseSequencer.Slot slot, boolean keepAlive) {
+    if (!keepAlive) {
+      response.header(CONNECTION, "close");
     }
+    writeResponse(response, slot);
+    slot.finish(!keepAlive);
+  }
 
-    return channel.write(nettyResponse);
+  private static boolean hasBody(Method method, int statusCode) {
+    return Method.HEAD != method && statusCode >= 200 && 204 != statusCode && 304 != statusCode;
   }
 
-  private class HttpServerHandler extends SimpleChannelUpstreamHandler {
-    @Override public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+  private class HttpServerHandler extends IdleStateAwareChannelUpstreamHandler {
+    @Override public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+      DispatchScope scope = dispatchScope.get();
+      scope.active = true;
+      try {
+        dispatch(ctx, e);
+      } finally {
+        scope.active = false;
+        scope.flush();
+      }
+    }
+
+    private void dispatch(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
       //log.debug("msg: " + e);
       final Channel channel = e.getChannel();
       final Object msg = e.getMessage();
 
-      HttpRequest request = (HttpRequest) ctx.getAttachment();
-      if (null == request || msg instanceof org.jboss.netty.handler.codec.http.HttpRequest) {
+      Connection conn = (Connection) ctx.getAttachment();
+      if (null == conn) {
+        conn = new Connection(new ResponseSequencer(channel, maxPipelinedRequests, writeBufferHighWaterMark));
+        ctx.setAttachment(conn);
+      }
+      if (conn.sequencer.isClosing()) {
+        // An earlier response closes the connection, so nothing read after it will be answered
+        return;
+      }
+
+      HttpRequest request = conn.request;
+      if (msg instanceof org.jboss.netty.handler.codec.http.HttpRequest) {
         request = new HttpRequest();
         org.jboss.netty.handler.codec.http.HttpRequest nettyRequest =
             (org.jboss.netty.handler.codec.http.HttpRequest) e.getMessage();
+        // Responses go out in the order their requests came in, however they finish
+        final ResponseSequencer.Slot slot = conn.sequencer.next();
 
         // Handle Expect: 100-continue
         if (is100ContinueExpected(nettyRequest)) {
-          channel.write(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+          slot.write(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
         }
 
         Method method = Method.valueOf(nettyRequest.getMethod().toString());
         request.method(method);
 
-        URI uri = createURI(nettyRequest);
-        request.uri(uri);
-
-        for (String s : nettyRequest.getHeaderNames()) {
-          request.header(s, nettyRequest.getHeader(s));
+        request.adoptHeaders(nettyRequest);
+        conn.request = request;
+
+        RequestTarget target;
+        try {
+          target = RequestTarget.parse(SCHEME, request.header(HOST), nettyRequest.getUri());
+        } catch (IllegalArgumentException iae) {
+          HttpResponse badRequest = new HttpResponse()
+              .status(400, "Bad Request")
+              .header(CONTENT_LENGTH, "0");
+          writeBodilessResponse(badRequest, slot, false);
+          return;
         }
-        QueryStringDecoder queryStringDecoder = new QueryStringDecoder(nettyRequest.getUri());
-        request.params(queryStringDecoder.getParameters());
+        request.target(target);
 
-        final boolean keepAlive;
-        if (null != request.header(CONNECTION)) {
-          keepAlive = HttpHeader.matches(request.header(CONNECTION), "Keep-Alive");
-        } else {
-          keepAlive = false;
-        }
+        // HTTP/1.1 connections persist unless either side says otherwise, HTTP/1.0 ones only if the client asks
+        conn.requests++;
+        (1 == conn.requests ? newConnections : reusedConnections).incrementAndGet();
+        final boolean http10 = HttpVersion.HTTP_1_0.equals(nettyRequest.getProtocolVersion());
+        final boolean clientKeepAlive = isKeepAlive(nettyRequest) &&
+            (maxKeepAliveRequests <= 0 || conn.requests < maxKeepAliveRequests);
+        final Method requestMethod = method;
 
         request.replyHandler(new Handler<Message>() {
           @Override public void handle(Message msg) {
             if (msg instanceof HttpResponse) {
               final HttpResponse response = (HttpResponse) msg;
-
-              if (keepAlive) {
-                response.header(CONNECTION, "Keep-Alive");
+              slot.response(response);
+              response.writable(channel.isWritable());
+
+              final boolean body = hasBody(requestMethod, response.statusCode());
+              final boolean chunked = body && response.contentLength() < 0 && !http10;
+              // An HTTP/1.0 client can't read chunks, so a body of unknown length ends when the connection does
+              final boolean keepAlive = clientKeepAlive &&
+                  !HttpHeader.matches(response.header(CONNECTION), "close") &&
+                  !(body && response.contentLength() < 0 && http10);
+
+              if (!keepAlive) {
+                response.header(CONNECTION, "close");
+              } else if (http10) {
+                response.header(CONNECTION, "keep-alive");
               }
-
-              final boolean chunked;
-              if (response.contentLength() < 0) {
+              if (chunked) {
                 response.header(TRANSFER_ENCODING, "chunked");
-                chunked = true;
-              } else {
-                chunked = false;
               }
 
-              writeResponse(response, channel);
-
-              if (chunked || response.contentLength() > 0) {
-                response.writeHandler(new WriteHandler<Object>() {
-                  @Override public void write(Object obj, final Handler<Void> completionHandler) {
-                    if (obj instanceof Path) {
-                      Path path = (Path) obj;
-                      try {
-                        RandomAccessFile f = new RandomAccessFile(path.toFile(), "r");
-                        long len = f.length();
-                        channel.write(new DefaultFileRegion(f.getChannel(), 0, len));
-                      } catch (IOException ioe) {
-                        log.error(ioe.getMessage(), ioe);
-                      }
-                    } else {
-                      HttpChunk chunk;
-                      if (obj instanceof HttpChunk) {
-                        chunk = (HttpChunk) obj;
-                      } else if (obj instanceof Buffer) {
-                        chunk = new DefaultHttpChunk(ChannelBuffers.wrappedBuffer(((Buffer) obj).byteBuffer()));
-                      } else {
-                        chunk = conversionService.convert(obj, HttpChunk.class);
-                      }
-
-                      ChannelFuture f = channel.write(chunk);
-                      if (null != completionHandler) {
-                        f.addListener(new ChannelFutureListener() {
-                          @Override public void operationComplete(ChannelFuture future) throws Exception {
-                            completionHandler.handle(null);
-                          }
-                        });
-                      }
-                    }
-                  }
-                });
-              }
+              writeResponse(response, slot);
+
+              final ResponseWriter writer = new ResponseWriter(slot);
+              // A handler shared with GET may well write a body to a HEAD response, so it's taken and thrown away
+              response.writeHandler(body && response.contentLength() != 0 ? writer : DISCARD_BODY);
 
               response.completionHandler(new Handler<Void>() {
                 @Override public void handle(Void v) {
-                  if (!keepAlive) {
-                    channel.write(new DefaultHttpChunkTrailer()).addListener(ChannelFutureListener.CLOSE);
+                  writer.flush();
+                  if (chunked) {
+                    slot.write(new DefaultHttpChunkTrailer());
                   }
+                  slot.finish(!keepAlive);
                 }
               });
 
@@ -241,32 +580,71 @@ public class HttpServer extends Server<HttpServer> {
           }
         });
 
-        ctx.setAttachment(request);
-        for (Route<Handler<HttpRequest>> r : routes) {
-          if (r.matches(uri.getPath())) {
-            r.resource().handle(request);
+        String path = target.path();
+        RouteMatch<RouteHandler> match = routers.get(method).match(path);
+        if (null != match) {
+          request.pathParameters(match.pathParameters());
+          final Handler<HttpRequest> handler = match.resource().handler;
+          ExecutionPolicy policy = match.resource().policy;
+          if (null == policy) {
+            policy = executionPolicy;
+          }
+          if (ExecutionPolicy.INLINE == policy) {
+            handler.handle(request);
             return;
           }
+
+          // The body may start arriving before the handler gets to set a read handler
+          request.holdBody();
+          final HttpRequest offloaded = request;
+          boolean accepted = tier(policy).execute(new Runnable() {
+            @Override public void run() {
+              handler.handle(offloaded);
+            }
+          });
+          if (!accepted) {
+            rejectedRequests.incrementAndGet();
+            // Nobody will read the body, so don't hold on to it. If there's more of it to come, close the connection
+            // rather than read through the rest of an upload being turned away.
+            request.discardBody();
+            conn.request = null;
+            HttpResponse unavailable = new HttpResponse()
+                .status(503, "Service Unavailable")
+                .header(RETRY_AFTER, "1")
+                .header(CONTENT_LENGTH, "0");
+            writeBodilessResponse(unavailable, slot, clientKeepAlive && !nettyRequest.isChunked());
+          }
+          return;
+        }
+
+        String allowed = allowHeader(path);
+        if (null != allowed) {
+          HttpResponse notAllowed = new HttpResponse()
+              .status(405, "Method Not Allowed")
+              .header(ALLOW, allowed)
+              .header(CONTENT_LENGTH, "0");
+          writeBodilessResponse(notAllowed, slot, clientKeepAlive);
+          return;
         }
 
         // No routes matched
         HttpResponse notFound = new HttpResponse()
             .status(404, "Resource Not Found")
             .header(CONTENT_LENGTH, "0");
-        writeResponse(notFound, channel);
+        writeBodilessResponse(notFound, slot, clientKeepAlive);
 
       } else if (msg instanceof HttpChunk) {
+        if (null == request) {
+          // The rest of a body that was turned away
+          return;
+        }
         // Already handled the first bit, we must be processing chunks only now
         HttpChunk chunk = (HttpChunk) e.getMessage();
         ChannelBuffer contentBuffer = chunk.getContent();
-        int len = contentBuffer.readableBytes();
-        ByteBuffer b = ByteBuffer.allocateDirect(len);
-        contentBuffer.readBytes(b);
-        b.flip();
-        Handler<Buffer> handler = request.readHandler();
-        if (null != handler) {
-          handler.handle(new Buffer(b));
-        }
+        // The decoder gives every chunk freshly allocated content that it never touches again, so the read handler
+        // gets a view straight onto it rather than a copy. The bytes stay valid for as long as the handler holds on to
+        // the Buffer; releasing it just lets the GC have them.
+        request.body(Buffer.wrap(contentBuffer.toByteBuffers()));
 
         if (chunk.isLast()) {
           request.complete();
@@ -276,6 +654,24 @@ public class HttpServer extends Server<HttpServer> {
       }
     }
 
+    @Override public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+      // Let whoever is producing a response know when the channel fills up and drains
+      Connection conn = (Connection) ctx.getAttachment();
+      if (null != conn) {
+        conn.sequencer.writable(e.getChannel().isWritable());
+      }
+      super.channelInterestChanged(ctx, e);
+    }
+
+    @Override public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e) throws Exception {
+      // Only reap connections waiting for their next request, not ones whose handler is taking its time
+      Connection conn = (Connection) ctx.getAttachment();
+      if (null == conn || 0 == conn.sequencer.depth()) {
+        idleConnectionsClosed.incrementAndGet();
+        e.getChannel().close();
+      }
+    }
+
     @Override public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
       switch ("" + e.getCause().getMessage()) {
         case "Connection reset by peer":
@@ -288,6 +684,195 @@ public class HttpServer extends Server<HttpServer> {
     }
   }
 
+  /**
+   * What's going on with a single connection.
+   */
+  private static class Connection {
+    // Keeps the responses to pipelined requests in order
+    private final ResponseSequencer sequencer;
+    // The request whose body chunks are arriving
+    private HttpRequest request;
+    // How many requests have come in on this connection
+    private int requests;
+
+    private Connection(ResponseSequencer sequencer) {
+      this.sequencer = sequencer;
+    }
+  }
+
+  /**
+   * Takes the writes to a response that has no body and drops them.
+   */
+  private static final WriteHandler<Object> DISCARD_BODY = new WriteHandler<Object>() {
+    @Override public void write(Object obj, Handler<Void> completionHandler) {
+      if (obj instanceof Buffer) {
+        ((Buffer) obj).release();
+      }
+      if (null != completionHandler) {
+        completionHandler.handle(null);
+      }
+    }
+  };
+
+  /**
+   * Writes the body of a response. Small writes are gathered up and sent as a single chunk wrapping all of their
+   * buffers, so nothing is copied and the socket sees one gathering write. Pending writes go out once they add up to
+   * the flush threshold, when something that can't be gathered is written, when the response completes, and at the
+   * latest when the I/O thread returns from the dispatch they were made in. Writes made off the I/O thread are sent
+   * straight away.
+   */
+  private class ResponseWriter extends WriteHandler<Object> {
+    private final ResponseSequencer.Slot slot;
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private List<Buffer> pendingBuffers = new ArrayList<>();
+    private List<Handler<Void>> pendingCompletions = new ArrayList<>();
+    private int pendingBytes = 0;
+    private boolean deferred = false;
+
+    private ResponseWriter(ResponseSequencer.Slot slot) {
+      this.slot = slot;
+    }
+
+    @Override public void write(Object obj, final Handler<Void> completionHandler) {
+      if (obj instanceof Path) {
+        flush();
+        Path path = (Path) obj;
+        try {
+          RandomAccessFile f = new RandomAccessFile(path.toFile(), "r");
+          long len = f.length();
+          slot.write(new DefaultFileRegion(f.getChannel(), 0, len));
+        } catch (IOException ioe) {
+          log.error(ioe.getMessage(), ioe);
+        }
+      } else if (obj instanceof Buffer) {
+        Buffer b = (Buffer) obj;
+        gather(b.byteBuffers(), b, completionHandler);
+      } else {
+        HttpChunk chunk;
+        if (obj instanceof HttpChunk) {
+          chunk = (HttpChunk) obj;
+        } else {
+          chunk = conversionService.convert(obj, HttpChunk.class);
+        }
+
+        if (chunk.isLast()) {
+          flush();
+          ChannelFuture f = slot.write(chunk);
+          if (null != completionHandler) {
+            f.addListener(new ChannelFutureListener() {
+              @Override public void operationComplete(ChannelFuture future) throws Exception {
+                completionHandler.handle(null);
+              }
+            });
+          }
+        } else {
+          gather(chunk.getContent().toByteBuffers(), null, completionHandler);
+        }
+      }
+    }
+
+    private void gather(ByteBuffer[] buffers, Buffer owner, Handler<Void> completionHandler) {
+      boolean flushNow;
+      synchronized (this) {
+        for (ByteBuffer b : buffers) {
+          if (b.hasRemaining()) {
+            pending.add(b);
+            pendingBytes += b.remaining();
+          }
+        }
+        if (null != owner) {
+          pendingBuffers.add(owner);
+        }
+        if (null != completionHandler) {
+          pendingCompletions.add(completionHandler);
+        }
+        flushNow = pendingBytes >= flushThreshold;
+      }
+
+      DispatchScope scope = dispatchScope.get();
+      if (flushNow || !scope.active) {
+        flush();
+      } else {
+        scope.defer(this);
+      }
+    }
+
+    private synchronized void flush() {
+      deferred = false;
+      if (pending.isEmpty() && pendingBuffers.isEmpty() && pendingCompletions.isEmpty()) {
+        return;
+      }
+      final List<Buffer> buffers = pendingBuffers;
+      final List<Handler<Void>> completions = pendingCompletions;
+      ChannelBuffer content = ChannelBuffers.wrappedBuffer(pending.toArray(new ByteBuffer[pending.size()]));
+      pending = new ArrayList<>();
+      pendingBuffers = new ArrayList<>();
+      pendingCompletions = new ArrayList<>();
+      boolean empty = (0 == pendingBytes);
+      pendingBytes = 0;
+
+      ChannelFutureListener done = new ChannelFutureListener() {
+        @Override public void operationComplete(ChannelFuture future) throws Exception {
+          // Buffers written to a response belong to it once they've been handed over
+          for (Buffer b : buffers) {
+            b.release();
+          }
+          for (Handler<Void> handler : completions) {
+            handler.handle(null);
+          }
+        }
+      };
+      if (empty) {
+        // An empty chunk would end a chunked response, so there's nothing to write
+        try {
+          done.operationComplete(null);
+        } catch (Exception e) {
+          log.error(e.getMessage(), e);
+        }
+      } else {
+        slot.write(new DefaultHttpChunk(content)).addListener(done);
+      }
+    }
+  }
+
+  /**
+   * Response writers that have coalesced writes during the dispatch currently running on this thread.
+   */
+  private static class DispatchScope {
+    private boolean active = false;
+    private final List<ResponseWriter> writers = new ArrayList<>();
+
+    private void defer(ResponseWriter writer) {
+      synchronized (writer) {
+        if (writer.deferred) {
+          return;
+        }
+        writer.deferred = true;
+      }
+      writers.add(writer);
+    }
+
+    private void flush() {
+      for (int i = 0; i < writers.size(); i++) {
+        writers.get(i).flush();
+      }
+      writers.clear();
+    }
+  }
+
+  /**
+   * A route's handler along with where it runs.
+   */
+  private static class RouteHandler {
+    private final Handler<HttpRequest> handler;
+    private final ExecutionPolicy policy;
+
+    private RouteHandler(Handler<HttpRequest> handler, ExecutionPolicy policy) {
+      this.handler = handler;
+      this.policy = policy;
+    }
+  }
+
   private enum StringToHttpChunkConverter implements Converter<String, HttpChunk> {
     INSTANCE;
 
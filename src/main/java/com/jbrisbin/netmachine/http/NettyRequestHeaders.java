@@ -0,0 +1,101 @@
+package com.jbrisbin.netmachine.http;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.jbrisbin.netmachine.Headers;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+
+/**
+ * Headers that read straight from the request Netty decoded. Looking a header up by name goes to Netty's own
+ * (case-insensitive) storage; only changing the headers or walking all of them copies them over, so a handler that
+ * reads a header or two never pays for the rest.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+class NettyRequestHeaders extends Headers {
+
+  private HttpMessage source;
+
+  NettyRequestHeaders(HttpMessage source) {
+    super(0);
+    this.source = source;
+  }
+
+  boolean isMaterialized() {
+    return null == source;
+  }
+
+  @Override public int size() {
+    materialize();
+    return super.size();
+  }
+
+  @Override public boolean isEmpty() {
+    return (null != source ? source.getHeaderNames().isEmpty() : super.isEmpty());
+  }
+
+  @Override public String name(int i) {
+    materialize();
+    return super.name(i);
+  }
+
+  @Override public String value(int i) {
+    materialize();
+    return super.value(i);
+  }
+
+  @Override public boolean contains(String name) {
+    return (null != source ? source.containsHeader(name) : super.contains(name));
+  }
+
+  @Override public String get(String name) {
+    return (null != source ? source.getHeader(name) : super.get(name));
+  }
+
+  @Override public List<String> getAll(String name) {
+    return (null != source ? source.getHeaders(name) : super.getAll(name));
+  }
+
+  @Override public Set<String> names() {
+    materialize();
+    return super.names();
+  }
+
+  @Override public Headers add(String name, String value) {
+    materialize();
+    return super.add(name, value);
+  }
+
+  @Override public Headers set(String name, String value) {
+    materialize();
+    return super.set(name, value);
+  }
+
+  @Override public boolean remove(String name) {
+    materialize();
+    return super.remove(name);
+  }
+
+  @Override public Headers clear() {
+    source = null;
+    return super.clear();
+  }
+
+  @Override public String toString() {
+    materialize();
+    return super.toString();
+  }
+
+  private void materialize() {
+    HttpMessage m = source;
+    if (null != m) {
+      source = null;
+      for (Map.Entry<String, String> header : m.getHeaders()) {
+        super.add(header.getKey(), header.getValue());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,277 @@
+package com.jbrisbin.netmachine.http;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import com.jbrisbin.netmachine.http.routing.UriUtils;
+
+/**
+ * The target of a request as it arrived on the request line: the raw path, the raw query and the authority it was sent
+ * to. The request line is scanned once and the path and query are kept as offsets into it, so nothing is copied until
+ * it's asked for and a {@link URI} is only built by {@link #toURI()}. The path is held to the RFC 3986 character
+ * classes in {@link UriUtils}; the query only has to be free of controls, spaces and {@code #}, since clients send
+ * things like {@code a[]=1} and raw UTF-8 there and expect them to work.
+ * <p/>
+ * Origin-form ({@code /path?query}), absolute-form ({@code http://host/path?query}), authority-form ({@code
+ * host:port}, for {@code CONNECT}) and asterisk-form ({@code *}, for {@code OPTIONS}) targets are understood.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class RequestTarget {
+
+  private final String target;
+  private final String scheme;
+  private final String authority;
+  private final int pathStart;
+  private final int pathEnd;
+  private final int queryStart;
+
+  private String rawPath;
+  private String rawQuery;
+  private String path;
+  private int portStart = -2;
+
+  private RequestTarget(String target, String scheme, String authority, int pathStart, int pathEnd, int queryStart) {
+    this.target = target;
+    this.scheme = scheme;
+    this.authority = authority;
+    this.pathStart = pathStart;
+    this.pathEnd = pathEnd;
+    this.queryStart = queryStart;
+  }
+
+  /**
+   * @param scheme    the scheme the request came in on, used unless the target is in absolute-form
+   * @param authority the request's {@code Host} header, used unless the target is in absolute-form
+   * @param target    the request-target from the request line
+   * @throws IllegalArgumentException if {@code target} isn't a valid request-target
+   */
+  public static RequestTarget parse(String scheme, String authority, String target) {
+    int len = target.length();
+    if (0 == len) {
+      throw new IllegalArgumentException("Empty request target");
+    }
+    if (null != authority) {
+      checkAuthority(authority, 0, authority.length());
+    }
+
+    if ('/' == target.charAt(0)) {
+      return originForm(scheme, authority, target, 0);
+    }
+    if (1 == len && '*' == target.charAt(0)) {
+      return new RequestTarget(target, scheme, authority, 0, 1, -1);
+    }
+
+    int colon = 0;
+    while (colon < len && UriUtils.isSchemeChar(target.charAt(colon))) {
+      colon++;
+    }
+    if (colon > 0 && target.startsWith("://", colon)) {
+      int authStart = colon + 3;
+      int authEnd = authStart;
+      while (authEnd < len && '/' != target.charAt(authEnd) && '?' != target.charAt(authEnd)) {
+        authEnd++;
+      }
+      checkAuthority(target, authStart, authEnd);
+      RequestTarget t = originForm(target.substring(0, colon).toLowerCase(),
+                                   target.substring(authStart, authEnd),
+                                   target,
+                                   authEnd);
+      if (t.pathStart == t.pathEnd) {
+        // Nothing after the authority means the root
+        t.rawPath = "/";
+      }
+      return t;
+    }
+
+    checkAuthority(target, 0, len);
+    return new RequestTarget(target, scheme, target, len, len, -1);
+  }
+
+  private static RequestTarget originForm(String scheme, String authority, String target, int pathStart) {
+    int len = target.length();
+    int pathEnd = scan(target, pathStart, len, false);
+    int queryStart = -1;
+    if (pathEnd < len) {
+      if ('?' != target.charAt(pathEnd)) {
+        throw invalid(target, pathEnd);
+      }
+      queryStart = pathEnd + 1;
+      int queryEnd = scan(target, queryStart, len, true);
+      if (queryEnd < len) {
+        throw invalid(target, queryEnd);
+      }
+    }
+    return new RequestTarget(target, scheme, authority, pathStart, pathEnd, queryStart);
+  }
+
+  /**
+   * @return the index of the first character from {@code start} that can't appear in a path (or query)
+   */
+  private static int scan(String s, int start, int end, boolean query) {
+    int i = start;
+    while (i < end) {
+      char c = s.charAt(i);
+      if ('%' == c) {
+        if (i + 2 >= end || Character.digit(s.charAt(i + 1), 16) < 0 || Character.digit(s.charAt(i + 2), 16) < 0) {
+          throw invalid(s, i);
+        }
+        i += 3;
+      } else if (query ? isQueryChar(c) : UriUtils.isPathChar(c)) {
+        i++;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isQueryChar(char c) {
+    return c > ' ' && c != 0x7f && c != '#';
+  }
+
+  private static void checkAuthority(String s, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (!UriUtils.isAuthorityChar(c) && '%' != c) {
+        throw invalid(s, i);
+      }
+    }
+  }
+
+  private static IllegalArgumentException invalid(String s, int i) {
+    return new IllegalArgumentException("Invalid character at " + i + " of request target " + s);
+  }
+
+  public String scheme() {
+    return scheme;
+  }
+
+  /**
+   * @return the authority the request was sent to, or {@literal null} if it didn't say
+   */
+  public String authority() {
+    return authority;
+  }
+
+  /**
+   * @return the host part of the {@link #authority() authority}, or {@literal null} if there isn't one
+   */
+  public String host() {
+    if (null == authority) {
+      return null;
+    }
+    int start = authority.lastIndexOf('@') + 1;
+    int end = portStart();
+    return authority.substring(start, (end < 0 ? authority.length() : end - 1));
+  }
+
+  /**
+   * @return the port given in the {@link #authority() authority}, or -1 if there isn't one
+   */
+  public int port() {
+    int start = portStart();
+    if (start < 0 || start == authority.length()) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(authority.substring(start));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private int portStart() {
+    if (-2 == portStart) {
+      portStart = -1;
+      if (null != authority) {
+        int colon = authority.lastIndexOf(':');
+        if (colon > authority.lastIndexOf(']') && colon > authority.lastIndexOf('@')) {
+          portStart = colon + 1;
+        }
+      }
+    }
+    return portStart;
+  }
+
+  /**
+   * @return the path exactly as it was sent, still percent-encoded
+   */
+  public String rawPath() {
+    if (null == rawPath) {
+      rawPath = target.substring(pathStart, pathEnd);
+    }
+    return rawPath;
+  }
+
+  /**
+   * @return the decoded path
+   */
+  public String path() {
+    if (null == path) {
+      path = UriUtils.decode(rawPath()).toString();
+    }
+    return path;
+  }
+
+  /**
+   * @return the query exactly as it was sent, or {@literal null} if there isn't one
+   */
+  public String rawQuery() {
+    if (null == rawQuery && queryStart >= 0) {
+      rawQuery = target.substring(queryStart);
+    }
+    return rawQuery;
+  }
+
+  /**
+   * @return the request-target as it appeared on the request line
+   */
+  public String target() {
+    return target;
+  }
+
+  /**
+   * Build the full {@link URI} of the request.
+   *
+   * @throws IllegalStateException if {@link URI} won't accept the target
+   */
+  public URI toURI() {
+    StringBuilder uri = new StringBuilder();
+    if (null != authority) {
+      uri.append(scheme).append("://").append(authority);
+    }
+    if (rawPath().startsWith("/")) {
+      uri.append(rawPath);
+    }
+    if (queryStart >= 0) {
+      uri.append('?');
+      appendQuery(uri, rawQuery());
+    }
+    try {
+      return new URI(uri.toString());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Append {@code query}, escaping whatever {@link URI} won't take as it is.
+   */
+  private static void appendQuery(StringBuilder uri, String query) {
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if ('%' == c || (c < 0x80 ? UriUtils.isQueryChar(c) : !Character.isISOControl(c))) {
+        uri.append(c);
+      } else {
+        uri.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16)))
+           .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return target;
+  }
+
+}
@@ -0,0 +1,306 @@
+package com.jbrisbin.netmachine.http;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+
+/**
+ * Puts the responses to pipelined requests back into request order. Every request on a connection gets a {@link Slot}
+ * and every write for its response goes through that slot. The slot of the oldest unanswered request writes straight
+ * through; the others hold on to their writes until every slot before them has finished.
+ * <p/>
+ * Once {@code maxDepth} requests are waiting for a response ahead of the one being read, the channel stops reading,
+ * so a client can't queue up more work than that on one connection. The request being read doesn't count, so its own
+ * body can always be read. A slot holding on to more than {@code highWaterMark} bytes of writes tells its response the
+ * channel isn't writable until its turn comes, the same as the channel does for the slot writing through.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+class ResponseSequencer {
+
+  private final Channel channel;
+  private final int maxDepth;
+  private final int highWaterMark;
+  private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+  // Writes whose turn has come. Any thread may add to it, but only one at a time hands them to the channel, the same
+  // way BaseMessage drains its writes.
+  private final ConcurrentLinkedQueue<Pending> ready = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  // Held while the channel's readability is being set, so the last to set it always does so from the latest state
+  private final Object readableLock = new Object();
+  private boolean closing = false;
+  private boolean suspended = false;
+
+  ResponseSequencer(Channel channel, int maxDepth, int highWaterMark) {
+    this.channel = channel;
+    this.maxDepth = maxDepth;
+    this.highWaterMark = highWaterMark;
+  }
+
+  /**
+   * Take the slot for the next request read off the connection.
+   */
+  Slot next() {
+    Slot slot = new Slot();
+    boolean suspend;
+    synchronized (slots) {
+      if (closing) {
+        slot.finished = true;
+        return slot;
+      }
+      slots.addLast(slot);
+      suspend = maxDepth > 0 && slots.size() > maxDepth && !suspended;
+      if (suspend) {
+        suspended = true;
+      }
+    }
+    if (suspend) {
+      updateReadable();
+    }
+    return slot;
+  }
+
+  /**
+   * @return how many requests are waiting for their response to finish
+   */
+  int depth() {
+    synchronized (slots) {
+      return slots.size();
+    }
+  }
+
+  boolean isClosing() {
+    synchronized (slots) {
+      return closing;
+    }
+  }
+
+  /**
+   * Let every response still being written know whether the channel can take more.
+   */
+  void writable(boolean writable) {
+    List<HttpResponse> responses = new ArrayList<>();
+    synchronized (slots) {
+      for (Slot slot : slots) {
+        // One holding on to too much stays unwritable until its turn, whatever the channel does
+        if (null != slot.response && !slot.overWaterMark) {
+          responses.add(slot.response);
+        }
+      }
+    }
+    for (HttpResponse response : responses) {
+      response.writable(writable);
+    }
+  }
+
+  /**
+   * Move past every finished slot at the head of the line, releasing the writes of the one after them.
+   *
+   * @return whether reading should resume
+   */
+  private boolean advance() {
+    Slot head;
+    while (null != (head = slots.peekFirst()) && head.finished) {
+      slots.pollFirst();
+      if (head.closeAfter) {
+        // Nothing after this response will ever be sent
+        closing = true;
+        ready.offer(Pending.CLOSE);
+        for (Slot dropped : slots) {
+          dropped.discard();
+        }
+        slots.clear();
+        return false;
+      }
+      Slot next = slots.peekFirst();
+      if (null != next) {
+        ready.addAll(next.buffered);
+        next.buffered = null;
+      }
+    }
+    if (suspended && slots.size() <= maxDepth) {
+      suspended = false;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Make the channel's readability match {@code suspended}. Whoever changes {@code suspended} calls this afterwards, and
+   * the state is read under {@code readableLock}, so a suspend and a resume racing each other can't leave the channel
+   * set the way the one that lost the race wanted.
+   */
+  private void updateReadable() {
+    synchronized (readableLock) {
+      boolean readable;
+      synchronized (slots) {
+        readable = !suspended;
+      }
+      if (channel.isReadable() != readable) {
+        channel.setReadable(readable);
+      }
+    }
+  }
+
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Pending p;
+      while (null != (p = ready.poll())) {
+        if (Pending.CLOSE == p) {
+          channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        } else {
+          final ChannelFuture future = p.future;
+          channel.write(p.msg).addListener(new ChannelFutureListener() {
+            @Override public void operationComplete(ChannelFuture f) throws Exception {
+              if (f.isSuccess()) {
+                future.setSuccess();
+              } else if (f.isCancelled()) {
+                future.cancel();
+              } else {
+                future.setFailure(f.getCause());
+              }
+            }
+          });
+        }
+      }
+      missed = drainRequests.addAndGet(-missed);
+    } while (0 != missed);
+  }
+
+  /**
+   * Where the writes for the response to one request go.
+   */
+  class Slot {
+    private List<Pending> buffered = new ArrayList<>();
+    private long bufferedBytes = 0;
+    // Whether it's holding on to more than the high water mark, so its response has been told to stop writing
+    private boolean overWaterMark = false;
+    private boolean finished = false;
+    private boolean closeAfter = false;
+    private volatile HttpResponse response;
+
+    /**
+     * Remember the response being written, so it hears about the channel's writability.
+     */
+    void response(HttpResponse response) {
+      this.response = response;
+    }
+
+    /**
+     * Write {@code msg} once every earlier response has been written.
+     */
+    ChannelFuture write(Object msg) {
+      ChannelFuture future = Channels.future(channel);
+      HttpResponse full = null;
+      synchronized (slots) {
+        if (finished) {
+          future.setFailure(new ClosedChannelException());
+          return future;
+        }
+        Pending p = new Pending(msg, future);
+        if (slots.peekFirst() == this) {
+          ready.offer(p);
+        } else {
+          buffered.add(p);
+          bufferedBytes += sizeOf(msg);
+          if (!overWaterMark && bufferedBytes > highWaterMark) {
+            overWaterMark = true;
+            full = response;
+          }
+        }
+      }
+      if (null != full) {
+        full.writable(false);
+      }
+      drain();
+      return future;
+    }
+
+    /**
+     * Mark the response complete, letting the next one be written.
+     *
+     * @param close whether to close the connection once this response is written
+     */
+    void finish(boolean close) {
+      boolean resume = false;
+      HttpResponse unheld = null;
+      synchronized (slots) {
+        if (finished) {
+          return;
+        }
+        finished = true;
+        closeAfter = close;
+        response = null;
+        if (slots.peekFirst() == this) {
+          resume = advance();
+          // Its writes have gone to the channel, so the new head goes by the channel's writability from now on
+          Slot head = slots.peekFirst();
+          if (null != head && head.overWaterMark) {
+            head.overWaterMark = false;
+            unheld = head.response;
+          }
+        }
+      }
+      drain();
+      if (null != unheld) {
+        unheld.writable(channel.isWritable());
+      }
+      if (resume) {
+        updateReadable();
+      }
+    }
+
+    private void discard() {
+      finished = true;
+      response = null;
+      if (null != buffered) {
+        for (Pending p : buffered) {
+          p.future.setFailure(new ClosedChannelException());
+        }
+        buffered = null;
+      }
+    }
+  }
+
+  private static long sizeOf(Object msg) {
+    if (msg instanceof ChannelBuffer) {
+      return ((ChannelBuffer) msg).readableBytes();
+    }
+    if (msg instanceof HttpChunk) {
+      return ((HttpChunk) msg).getContent().readableBytes();
+    }
+    if (msg instanceof org.jboss.netty.handler.codec.http.HttpMessage) {
+      return ((org.jboss.netty.handler.codec.http.HttpMessage) msg).getContent().readableBytes();
+    }
+    // File regions and chunked input aren't read into memory until they're written
+    return 0;
+  }
+
+  private static class Pending {
+    static final Pending CLOSE = new Pending(null, null);
+
+    final Object msg;
+    final ChannelFuture future;
+
+    private Pending(Object msg, ChannelFuture future) {
+      this.msg = msg;
+      this.future = future;
+    }
+  }
+
+}
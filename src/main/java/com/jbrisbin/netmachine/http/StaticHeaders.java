@@ -0,0 +1,43 @@
+package com.jbrisbin.netmachine.http;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+
+/**
+ * Headers that are the same on every response from a bound address, encoded once into the bytes that go on the wire.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+class StaticHeaders {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final String[] names;
+  private final byte[][] lines;
+
+  StaticHeaders(Map<String, String> headers) {
+    names = new String[headers.size()];
+    lines = new byte[headers.size()][];
+    int i = 0;
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      names[i] = header.getKey();
+      lines[i] = (header.getKey() + ": " + header.getValue() + "\r\n").getBytes(ASCII);
+      i++;
+    }
+  }
+
+  /**
+   * Write every header the message doesn't set itself.
+   */
+  void writeTo(ChannelBuffer buf, HttpMessage message) {
+    for (int i = 0; i < names.length; i++) {
+      if (!message.containsHeader(names[i])) {
+        buf.writeBytes(lines[i]);
+      }
+    }
+  }
+
+}
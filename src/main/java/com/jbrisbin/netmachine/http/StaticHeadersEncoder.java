@@ -0,0 +1,48 @@
+package com.jbrisbin.netmachine.http;
+
+import static com.jbrisbin.netmachine.http.HttpHeader.*;
+
+import com.jbrisbin.netmachine.http.util.HttpHeaderUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+
+/**
+ * Encodes responses with the server's {@link StaticHeaders} and the cached {@code Date} header appended to the status
+ * line as ready-made bytes, so none of them are built as strings for each response.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+class StaticHeadersEncoder extends HttpResponseEncoder {
+
+  private static final byte[] DATE_PREFIX = (DATE + ": ").getBytes();
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private final HttpServer server;
+  private StaticHeaders staticHeaders;
+
+  StaticHeadersEncoder(HttpServer server) {
+    this.server = server;
+  }
+
+  @Override protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+    if (null == staticHeaders && msg instanceof HttpMessage) {
+      // One encoder per connection, and a connection's local address never changes
+      staticHeaders = server.staticHeaders(channel.getLocalAddress());
+    }
+    return super.encode(ctx, channel, msg);
+  }
+
+  @Override protected void encodeInitialLine(ChannelBuffer buf, HttpMessage message) throws Exception {
+    super.encodeInitialLine(buf, message);
+    staticHeaders.writeTo(buf, message);
+    if (!message.containsHeader(DATE)) {
+      buf.writeBytes(DATE_PREFIX);
+      buf.writeBytes(HttpHeaderUtils.currentDateBytes());
+      buf.writeBytes(CRLF);
+    }
+  }
+
+}
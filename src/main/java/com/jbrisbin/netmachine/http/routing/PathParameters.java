@@ -0,0 +1,92 @@
+package com.jbrisbin.netmachine.http.routing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable path variables of a matched URI. Values are held in an array indexed the same way as the names of the
+ * {@link UriMatcher} that produced them, which is shared rather than copied for every match.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class PathParameters extends AbstractMap<String, String> {
+
+  public static final PathParameters EMPTY = new PathParameters(new String[0], new String[0]);
+
+  private final String[] names;
+  private final String[] values;
+
+  public PathParameters(String[] names, String[] values) {
+    if (names.length != values.length) {
+      throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+    }
+    this.names = names;
+    this.values = values;
+  }
+
+  public String name(int index) {
+    return names[index];
+  }
+
+  public String value(int index) {
+    return values[index];
+  }
+
+  @Override public int size() {
+    return names.length;
+  }
+
+  @Override public boolean containsKey(Object name) {
+    return indexOf(name) >= 0;
+  }
+
+  @Override public String get(Object name) {
+    int i = indexOf(name);
+    return (i >= 0 ? values[i] : null);
+  }
+
+  @Override public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          int i = 0;
+
+          @Override public boolean hasNext() {
+            return i < names.length;
+          }
+
+          @Override public Map.Entry<String, String> next() {
+            if (i >= names.length) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = new SimpleImmutableEntry<>(names[i], values[i]);
+            i++;
+            return entry;
+          }
+
+          @Override public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override public int size() {
+        return names.length;
+      }
+    };
+  }
+
+  private int indexOf(Object name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.jbrisbin.netmachine.http.routing;
+
+/**
+ * The {@link Route} selected for a path along with the path variables extracted while selecting it.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class RouteMatch<T> {
+
+  private final Route<T> route;
+  private final PathParameters pathParameters;
+
+  public RouteMatch(Route<T> route, PathParameters pathParameters) {
+    this.route = route;
+    this.pathParameters = pathParameters;
+  }
+
+  public Route<T> route() {
+    return route;
+  }
+
+  public T resource() {
+    return route.resource();
+  }
+
+  public PathParameters pathParameters() {
+    return pathParameters;
+  }
+
+  @Override public String toString() {
+    return "RouteMatch{" +
+        "pattern=" + route.uriMatcher().getPattern() +
+        ", pathParameters=" + pathParameters +
+        '}';
+  }
+
+}
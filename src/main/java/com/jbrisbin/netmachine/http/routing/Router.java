@@ -0,0 +1,324 @@
+package com.jbrisbin.netmachine.http.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dispatches a path to the first registered {@link Route} whose {@link UriMatcher} matches it.
+ * <p/>
+ * Patterns made of literal segments, {@code {name}} segments and a trailing {@code {name}**} or {@code **} segment are
+ * compiled into a segment trie so a lookup costs the length of the path rather than the number of routes. Anything
+ * else (regex characters in a literal, variables mixed with text inside a segment, splats in the middle of a pattern)
+ * is checked with the route's own regex, in registration order.
+ * <p/>
+ * Path variables are extracted while matching, so a {@link RouteMatch} never needs a second pass over the path.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class Router<T> {
+
+  private static final Object[] EMPTY = new Object[0];
+
+  private final List<Route<T>> routes = new ArrayList<>();
+  private volatile Compiled compiled = new Compiled(EMPTY, new Shape[0], new Node(), new int[0]);
+
+  public synchronized Router<T> add(Route<T> route) {
+    routes.add(route);
+    compiled = compile(routes);
+    return this;
+  }
+
+  public List<Route<T>> routes() {
+    return Collections.unmodifiableList(new ArrayList<>(routes));
+  }
+
+  public boolean isEmpty() {
+    return compiled.routes.length == 0;
+  }
+
+  public Route<T> find(String path) {
+    RouteMatch<T> m = match(path);
+    return (null != m ? m.route() : null);
+  }
+
+  @SuppressWarnings({"unchecked"})
+  public RouteMatch<T> match(String path) {
+    Compiled c = compiled;
+    int best = search(c.root, path, 0);
+    for (int idx : c.fallback) {
+      if (idx >= best) {
+        break;
+      }
+      Route<T> r = (Route<T>) c.routes[idx];
+      PathParameters pathParameters = r.uriMatcher().parameters(path);
+      if (null != pathParameters) {
+        return new RouteMatch<>(r, pathParameters);
+      }
+    }
+    if (best >= c.routes.length) {
+      return null;
+    }
+    return new RouteMatch<>((Route<T>) c.routes[best], c.shapes[best].extract(path));
+  }
+
+  /**
+   * Find the lowest route index reachable from {@code node} for the segments of {@code path} starting at {@code start}.
+   * A {@code start} of -1 means every segment has been consumed.
+   */
+  private static int search(Node node, String path, int start) {
+    if (start < 0) {
+      return node.terminal;
+    }
+
+    int len = path.length();
+    int end = start;
+    boolean dotted = false;
+    char c;
+    while (end < len && '/' != (c = path.charAt(end))) {
+      if ('.' == c) {
+        dotted = true;
+      }
+      end++;
+    }
+    int next = (end < len ? end + 1 : -1);
+
+    int best = node.splat;
+    if (null != node.literals) {
+      Node child = node.literals.get(path, start, end);
+      if (null != child) {
+        best = Math.min(best, search(child, path, next));
+      }
+    }
+    if (null != node.variable && !dotted) {
+      best = Math.min(best, search(node.variable, path, next));
+    }
+    return best;
+  }
+
+  private static <T> Compiled compile(List<Route<T>> routes) {
+    Node root = new Node();
+    Shape[] shapes = new Shape[routes.size()];
+    List<Integer> fallback = new ArrayList<>();
+    for (int idx = 0; idx < routes.size(); idx++) {
+      shapes[idx] = insert(root, routes.get(idx).uriMatcher(), idx);
+      if (null == shapes[idx]) {
+        fallback.add(idx);
+      }
+    }
+    int[] fb = new int[fallback.size()];
+    for (int i = 0; i < fb.length; i++) {
+      fb[i] = fallback.get(i);
+    }
+    return new Compiled(routes.toArray(), shapes, root, fb);
+  }
+
+  private static Shape insert(Node root, UriMatcher uriMatcher, int idx) {
+    String[] segments = uriMatcher.getPattern().split("/", -1);
+    // Make sure the whole pattern is expressible before touching the trie
+    for (int i = 0; i < segments.length; i++) {
+      switch (kind(segments[i])) {
+        case SPLAT:
+          if (i != segments.length - 1) {
+            return null;
+          }
+          break;
+        case UNSUPPORTED:
+          return null;
+      }
+    }
+
+    List<String> names = uriMatcher.getPathVariables();
+    Node node = root;
+    int[] slots = new int[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      switch (kind(segment)) {
+        case LITERAL:
+          slots[i] = -1;
+          node = node.literal(segment);
+          break;
+        case VARIABLE:
+          slots[i] = names.indexOf(segment.substring(1, segment.length() - 1));
+          if (null == node.variable) {
+            node.variable = new Node();
+          }
+          node = node.variable;
+          break;
+        case SPLAT:
+          int splat = ("**".equals(segment) ? -1 : names.indexOf(segment.substring(1, segment.length() - 3)));
+          node.splat = Math.min(node.splat, idx);
+          return new Shape(uriMatcher.getPathVariableNames(), Arrays.copyOf(slots, i), splat);
+      }
+    }
+    node.terminal = Math.min(node.terminal, idx);
+    return new Shape(uriMatcher.getPathVariableNames(), slots, Shape.NO_SPLAT);
+  }
+
+  private static SegmentKind kind(String segment) {
+    if ("**".equals(segment)) {
+      return SegmentKind.SPLAT;
+    }
+    if (segment.endsWith("}**") && isName(segment, segment.length() - 3)) {
+      return SegmentKind.SPLAT;
+    }
+    if (segment.endsWith("}") && isName(segment, segment.length() - 1)) {
+      return SegmentKind.VARIABLE;
+    }
+    for (int i = 0; i < segment.length(); i++) {
+      if ("\\^$.|?*+()[]{}".indexOf(segment.charAt(i)) >= 0) {
+        return SegmentKind.UNSUPPORTED;
+      }
+    }
+    return SegmentKind.LITERAL;
+  }
+
+  private static boolean isName(String segment, int close) {
+    if (close < 2 || '{' != segment.charAt(0)) {
+      return false;
+    }
+    for (int i = 1; i < close; i++) {
+      char c = segment.charAt(i);
+      if ('{' == c || '}' == c) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private enum SegmentKind {
+    LITERAL, VARIABLE, SPLAT, UNSUPPORTED
+  }
+
+  private static class Compiled {
+    final Object[] routes;
+    final Shape[] shapes;
+    final Node root;
+    final int[] fallback;
+
+    private Compiled(Object[] routes, Shape[] shapes, Node root, int[] fallback) {
+      this.routes = routes;
+      this.shapes = shapes;
+      this.root = root;
+      this.fallback = fallback;
+    }
+  }
+
+  /**
+   * The segments of a pattern the trie can express. Once the trie has picked a route, every segment of the path lines
+   * up with one segment of its pattern, so variables are read straight off the path.
+   */
+  private static class Shape {
+    static final int NO_SPLAT = -2;
+
+    final String[] names;
+    // Index into names for each variable segment, -1 for literal segments
+    final int[] slots;
+    // Index into names for a trailing {name}**, -1 for a trailing **, NO_SPLAT if there isn't one
+    final int splat;
+
+    private Shape(String[] names, int[] slots, int splat) {
+      this.names = names;
+      this.slots = slots;
+      this.splat = splat;
+    }
+
+    private PathParameters extract(String path) {
+      if (0 == names.length) {
+        return PathParameters.EMPTY;
+      }
+      String[] values = new String[names.length];
+      int start = 0;
+      for (int slot : slots) {
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+          end = path.length();
+        }
+        if (slot >= 0) {
+          values[slot] = path.substring(start, end);
+        }
+        start = end + 1;
+      }
+      if (splat >= 0) {
+        values[splat] = path.substring(start);
+      }
+      return new PathParameters(names, values);
+    }
+  }
+
+  private static class Node {
+    LiteralTable literals;
+    Node variable;
+    int terminal = Integer.MAX_VALUE;
+    int splat = Integer.MAX_VALUE;
+
+    private Node literal(String segment) {
+      if (null == literals) {
+        literals = new LiteralTable();
+      }
+      Node child = literals.get(segment, 0, segment.length());
+      if (null == child) {
+        child = new Node();
+        literals.put(segment, child);
+      }
+      return child;
+    }
+  }
+
+  /**
+   * Open-addressed table of literal segments that can be probed with a region of the request path, so no substring
+   * is created per segment.
+   */
+  private static class LiteralTable {
+    String[] keys = new String[8];
+    Node[] nodes = new Node[8];
+    int size = 0;
+
+    private Node get(String s, int start, int end) {
+      int mask = keys.length - 1;
+      int len = end - start;
+      for (int i = hash(s, start, end) & mask; ; i = (i + 1) & mask) {
+        String key = keys[i];
+        if (null == key) {
+          return null;
+        }
+        if (key.length() == len && key.regionMatches(0, s, start, len)) {
+          return nodes[i];
+        }
+      }
+    }
+
+    private void put(String key, Node node) {
+      if ((size + 1) * 2 > keys.length) {
+        String[] oldKeys = keys;
+        Node[] oldNodes = nodes;
+        keys = new String[oldKeys.length * 2];
+        nodes = new Node[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (null != oldKeys[i]) {
+            put(oldKeys[i], oldNodes[i]);
+          }
+        }
+      }
+      int mask = keys.length - 1;
+      int i = hash(key, 0, key.length()) & mask;
+      while (null != keys[i]) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      nodes[i] = node;
+      size++;
+    }
+
+    private static int hash(String s, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + s.charAt(i);
+      }
+      return h ^ (h >>> 16);
+    }
+  }
+
+}
@@ -1,17 +1,25 @@
 package com.jbrisbin.netmachine.http.routing;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.jbrisbin.netmachine.util.LruCache;
+
 /**
  * @author Jon Brisbin <jon@jbrisbin.com>
  */
 public class UriMatcher {
 
+  public static int MATCH_CACHE_SIZE = Integer.parseInt(System.getProperty("netmachine.uri_match_cache_size",
+                                                                           "" + 1024));
+
+  // Cached in place of a result for URIs that don't match, so misses are remembered too
+  private static final PathParameters NO_MATCH = new PathParameters(new String[0], new String[0]);
+
   private static final Pattern FULL_SPLAT_PATTERN = Pattern.compile("[\\*][\\*]");
   private static final String FULL_SPLAT_REPLACEMENT = ".*";
 
@@ -21,12 +29,24 @@ public class UriMatcher {
   private static final Pattern NAME_PATTERN = Pattern.compile("\\{([^/]+?)\\}");
   private static final String NAME_REPLACEMENT = "(?<%NAME%>[^\\/.]*)";
 
+  private String pattern;
   private Pattern uriPattern;
   private List<String> pathVariables = new ArrayList<>();
-  private final HashMap<String, Matcher> matchers = new HashMap<>();
-  private final HashMap<String, Map<String, String>> vars = new HashMap<>();
+  private String[] pathVariableNames;
+  private final LruCache<String, PathParameters> matches;
 
   public UriMatcher(String uriPattern) {
+    this(uriPattern, MATCH_CACHE_SIZE);
+  }
+
+  /**
+   * @param uriPattern the pattern to match URIs against
+   * @param cacheSize  the maximum number of URIs whose results are remembered, or 0 to match every URI afresh (which
+   *                   suits patterns that see a very large number of distinct URIs)
+   */
+  public UriMatcher(String uriPattern, int cacheSize) {
+    this.pattern = uriPattern;
+    this.matches = new LruCache<>(cacheSize);
     String s = "^" + uriPattern;
 
     Matcher m = NAME_SPLAT_PATTERN.matcher(s);
@@ -56,46 +76,69 @@ public class UriMatcher {
     }
 
     this.uriPattern = Pattern.compile(s + "$");
+    this.pathVariableNames = pathVariables.toArray(new String[pathVariables.size()]);
+  }
+
+  public String getPattern() {
+    return pattern;
   }
 
   public Pattern getUriPattern() {
     return uriPattern;
   }
 
+  public List<String> getPathVariables() {
+    return Collections.unmodifiableList(pathVariables);
+  }
+
+  String[] getPathVariableNames() {
+    return pathVariableNames;
+  }
+
+  public LruCache<String, PathParameters> getMatchCache() {
+    return matches;
+  }
+
   public boolean matches(String uri) {
-    return matcher(uri).matches();
+    return NO_MATCH != result(uri);
   }
 
   public Map<String, String> match(String uri) {
-    Map<String, String> pathParameters = vars.get(uri);
+    PathParameters pathParameters = result(uri);
+    return (NO_MATCH != pathParameters ? pathParameters : PathParameters.EMPTY);
+  }
+
+  /**
+   * Match the URI and extract its path variables in the same pass.
+   *
+   * @param uri the URI to match
+   * @return the path variables, or {@literal null} if the URI doesn't match
+   */
+  public PathParameters parameters(String uri) {
+    PathParameters pathParameters = result(uri);
+    return (NO_MATCH != pathParameters ? pathParameters : null);
+  }
+
+  private PathParameters result(String uri) {
+    PathParameters pathParameters = matches.get(uri);
     if (null != pathParameters) {
       return pathParameters;
     }
 
-    pathParameters = new HashMap<>();
-    Matcher m = matcher(uri);
+    // Matchers are stateful, so every lookup gets its own
+    Matcher m = uriPattern.matcher(uri);
     if (m.matches()) {
-      for (String name : pathVariables) {
-        String val = m.group(name);
-        pathParameters.put(name, val);
+      String[] values = new String[pathVariableNames.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = m.group(pathVariableNames[i]);
       }
+      pathParameters = new PathParameters(pathVariableNames, values);
+    } else {
+      pathParameters = NO_MATCH;
     }
-    synchronized (vars) {
-      vars.put(uri, pathParameters);
-    }
+    matches.put(uri, pathParameters);
 
     return pathParameters;
   }
 
-  private Matcher matcher(String uri) {
-    Matcher m = matchers.get(uri);
-    if (null == m) {
-      m = uriPattern.matcher(uri);
-      synchronized (matchers) {
-        matchers.put(uri, m);
-      }
-    }
-    return m;
-  }
-
 }
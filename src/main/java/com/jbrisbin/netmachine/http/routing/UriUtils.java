@@ -16,9 +16,8 @@
 
 package com.jbrisbin.netmachine.http.routing;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.BitSet;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,23 +39,14 @@ import java.util.regex.Pattern;
  */
 public abstract class UriUtils {
 
-  private static final BitSet SCHEME;
+  // Character classes from RFC 3986, appendix A
+  private static final String ALPHA = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+  private static final String DIGIT = "0123456789";
+  private static final String SUB_DELIMS = "!$&'()*+,;=";
+  private static final String UNRESERVED = ALPHA + DIGIT + "-._~";
+  private static final String PCHAR = UNRESERVED + SUB_DELIMS + ":@";
 
-  private static final BitSet USER_INFO;
-
-  private static final BitSet HOST;
-
-  private static final BitSet PORT;
-
-  private static final BitSet PATH;
-
-  private static final BitSet SEGMENT;
-
-  private static final BitSet QUERY;
-
-  private static final BitSet QUERY_PARAM;
-
-  private static final BitSet FRAGMENT;
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
 
   private static final String SCHEME_PATTERN = "([^:/?#]+):";
 
@@ -84,105 +74,35 @@ public abstract class UriUtils {
           ")?" + PATH_PATTERN + "(\\?" + LAST_PATTERN + ")?");
 
 
-  static {
-    // variable names refer to RFC 3986, appendix A
-    BitSet alpha = new BitSet(256);
-    for (int i = 'a'; i <= 'z'; i++) {
-      alpha.set(i);
-    }
-    for (int i = 'A'; i <= 'Z'; i++) {
-      alpha.set(i);
-    }
-    BitSet digit = new BitSet(256);
-    for (int i = '0'; i <= '9'; i++) {
-      digit.set(i);
-    }
 
-    BitSet gendelims = new BitSet(256);
-    gendelims.set(':');
-    gendelims.set('/');
-    gendelims.set('?');
-    gendelims.set('#');
-    gendelims.set('[');
-    gendelims.set(']');
-    gendelims.set('@');
-
-    BitSet subdelims = new BitSet(256);
-    subdelims.set('!');
-    subdelims.set('$');
-    subdelims.set('&');
-    subdelims.set('\'');
-    subdelims.set('(');
-    subdelims.set(')');
-    subdelims.set('*');
-    subdelims.set('+');
-    subdelims.set(',');
-    subdelims.set(';');
-    subdelims.set('=');
-
-    BitSet reserved = new BitSet(256);
-    reserved.or(gendelims);
-    reserved.or(subdelims);
-
-    BitSet unreserved = new BitSet(256);
-    unreserved.or(alpha);
-    unreserved.or(digit);
-    unreserved.set('-');
-    unreserved.set('.');
-    unreserved.set('_');
-    unreserved.set('~');
-
-    SCHEME = new BitSet(256);
-    SCHEME.or(alpha);
-    SCHEME.or(digit);
-    SCHEME.set('+');
-    SCHEME.set('-');
-    SCHEME.set('.');
-
-    USER_INFO = new BitSet(256);
-    USER_INFO.or(unreserved);
-    USER_INFO.or(subdelims);
-    USER_INFO.set(':');
-
-    HOST = new BitSet(256);
-    HOST.or(unreserved);
-    HOST.or(subdelims);
-
-    PORT = new BitSet(256);
-    PORT.or(digit);
-
-    BitSet pchar = new BitSet(256);
-    pchar.or(unreserved);
-    pchar.or(subdelims);
-    pchar.set(':');
-    pchar.set('@');
-
-    SEGMENT = new BitSet(256);
-    SEGMENT.or(pchar);
-
-    PATH = new BitSet(256);
-    PATH.or(SEGMENT);
-    PATH.set('/');
-
-    QUERY = new BitSet(256);
-    QUERY.or(pchar);
-    QUERY.set('/');
-    QUERY.set('?');
-
-    QUERY_PARAM = new BitSet(256);
-    QUERY_PARAM.or(pchar);
-    QUERY_PARAM.set('/');
-    QUERY_PARAM.set('?');
-    QUERY_PARAM.clear('=');
-    QUERY_PARAM.clear('+');
-    QUERY_PARAM.clear('&');
-
-    FRAGMENT = new BitSet(256);
-    FRAGMENT.or(pchar);
-    FRAGMENT.set('/');
-    FRAGMENT.set('?');
+
+  /**
+   * Whether {@code c} may appear unencoded in a URI scheme.
+   */
+  public static boolean isSchemeChar(int c) {
+    return Component.SCHEME.allows(c);
+  }
+
+  /**
+   * Whether {@code c} may appear unencoded in a URI authority (user info, host and port).
+   */
+  public static boolean isAuthorityChar(int c) {
+    return Component.AUTHORITY.allows(c);
+  }
+
+  /**
+   * Whether {@code c} may appear unencoded in a URI path.
+   */
+  public static boolean isPathChar(int c) {
+    return Component.PATH.allows(c);
   }
 
+  /**
+   * Whether {@code c} may appear unencoded in a URI query.
+   */
+  public static boolean isQueryChar(int c) {
+    return Component.QUERY.allows(c);
+  }
 
   /**
    * Encodes the given source URI into an encoded String. All various URI components
@@ -314,7 +234,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeScheme(String scheme, String encoding) throws UnsupportedEncodingException {
-    return encode(scheme, encoding, SCHEME);
+    return encode(scheme, encoding, Component.SCHEME);
   }
 
   /**
@@ -326,7 +246,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeUserInfo(String userInfo, String encoding) throws UnsupportedEncodingException {
-    return encode(userInfo, encoding, USER_INFO);
+    return encode(userInfo, encoding, Component.USER_INFO);
   }
 
   /**
@@ -338,7 +258,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeHost(String host, String encoding) throws UnsupportedEncodingException {
-    return encode(host, encoding, HOST);
+    return encode(host, encoding, Component.HOST);
   }
 
   /**
@@ -350,7 +270,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodePort(String port, String encoding) throws UnsupportedEncodingException {
-    return encode(port, encoding, PORT);
+    return encode(port, encoding, Component.PORT);
   }
 
   /**
@@ -362,7 +282,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodePath(String path, String encoding) throws UnsupportedEncodingException {
-    return encode(path, encoding, PATH);
+    return encode(path, encoding, Component.PATH);
   }
 
   /**
@@ -374,7 +294,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodePathSegment(String segment, String encoding) throws UnsupportedEncodingException {
-    return encode(segment, encoding, SEGMENT);
+    return encode(segment, encoding, Component.SEGMENT);
   }
 
   /**
@@ -386,7 +306,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeQuery(String query, String encoding) throws UnsupportedEncodingException {
-    return encode(query, encoding, QUERY);
+    return encode(query, encoding, Component.QUERY);
   }
 
   /**
@@ -398,7 +318,7 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeQueryParam(String queryParam, String encoding) throws UnsupportedEncodingException {
-    return encode(queryParam, encoding, QUERY_PARAM);
+    return encode(queryParam, encoding, Component.QUERY_PARAM);
   }
 
   /**
@@ -410,38 +330,121 @@ public abstract class UriUtils {
    * @throws UnsupportedEncodingException when the given encoding parameter is not supported
    */
   public static String encodeFragment(String fragment, String encoding) throws UnsupportedEncodingException {
-    return encode(fragment, encoding, FRAGMENT);
+    return encode(fragment, encoding, Component.FRAGMENT);
   }
 
-  private static String encode(String source, String encoding, BitSet notEncoded)
+  private static String encode(String source, String encoding, Component component)
       throws UnsupportedEncodingException {
 
     Objects.requireNonNull(source, "'source' must not be null");
     Objects.requireNonNull(encoding, "'encoding' must not be empty");
 
-    byte[] bytes = encode(source.getBytes(encoding), notEncoded);
-    return new String(bytes, "US-ASCII");
+    if (isAsciiCompatible(encoding)) {
+      int i = component.indexOfIllegal(source, 0, source.length());
+      if (i < 0) {
+        return source;
+      }
+      if ("UTF-8".equalsIgnoreCase(encoding)) {
+        StringBuilder sb = new StringBuilder(source.length() + 16).append(source, 0, i);
+        return encode(source, i, source.length(), component, sb).toString();
+      }
+    }
+
+    byte[] bytes = source.getBytes(encoding);
+    StringBuilder sb = new StringBuilder(bytes.length + 16);
+    for (byte b : bytes) {
+      if (component.allows(b & 0xFF)) {
+        sb.append((char) b);
+      } else {
+        escape(b & 0xFF, sb);
+      }
+    }
+    return sb.toString();
   }
 
-  private static byte[] encode(byte[] source, BitSet notEncoded) {
-    Objects.requireNonNull(source, "'source' must not be null");
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(source.length * 2);
-    for (int i = 0; i < source.length; i++) {
-      int b = source[i];
-      if (b < 0) {
-        b += 256;
+  /**
+   * Whether any character of {@code source} would have to be escaped to appear in {@code component}.
+   */
+  public static boolean needsEncoding(CharSequence source, Component component) {
+    return component.indexOfIllegal(source, 0, source.length()) >= 0;
+  }
+
+  /**
+   * Encode {@code source} as UTF-8 for use in {@code component}. When nothing needs escaping {@code source} itself is
+   * returned.
+   */
+  public static CharSequence encode(CharSequence source, Component component) {
+    int i = component.indexOfIllegal(source, 0, source.length());
+    if (i < 0) {
+      return source;
+    }
+    StringBuilder sb = new StringBuilder(source.length() + 16).append(source, 0, i);
+    return encode(source, i, source.length(), component, sb);
+  }
+
+  /**
+   * Append {@code source} from {@code start} to {@code end}, encoded as UTF-8 for use in {@code component}, to {@code
+   * out}.
+   */
+  public static StringBuilder encode(CharSequence source, int start, int end, Component component, StringBuilder out) {
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+      if (component.allows(c)) {
+        out.append(c);
+      } else if (c < 0x80) {
+        escape(c, out);
+      } else if (c < 0x800) {
+        escape(0xC0 | (c >> 6), out);
+        escape(0x80 | (c & 0x3F), out);
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(source.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, source.charAt(++i));
+          escape(0xF0 | (cp >> 18), out);
+          escape(0x80 | ((cp >> 12) & 0x3F), out);
+          escape(0x80 | ((cp >> 6) & 0x3F), out);
+          escape(0x80 | (cp & 0x3F), out);
+        } else if (component.allows('?')) {
+          // An unpaired surrogate becomes '?', the same as String.getBytes()
+          out.append('?');
+        } else {
+          escape('?', out);
+        }
+      } else {
+        escape(0xE0 | (c >> 12), out);
+        escape(0x80 | ((c >> 6) & 0x3F), out);
+        escape(0x80 | (c & 0x3F), out);
       }
-      if (notEncoded.get(b)) {
-        bos.write(b);
+    }
+    return out;
+  }
+
+  /**
+   * Copy the bytes remaining in {@code src} to {@code dst}, escaping any that can't appear in {@code component}.
+   *
+   * @return the number of bytes written to {@code dst}
+   * @throws java.nio.BufferOverflowException if {@code dst} fills up
+   */
+  public static int encode(ByteBuffer src, Component component, ByteBuffer dst) {
+    int start = dst.position();
+    while (src.hasRemaining()) {
+      int b = src.get() & 0xFF;
+      if (component.allows(b)) {
+        dst.put((byte) b);
       } else {
-        bos.write('%');
-        char hex1 = Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16));
-        char hex2 = Character.toUpperCase(Character.forDigit(b & 0xF, 16));
-        bos.write(hex1);
-        bos.write(hex2);
+        dst.put((byte) '%').put((byte) HEX[b >> 4]).put((byte) HEX[b & 0xF]);
       }
     }
-    return bos.toByteArray();
+    return dst.position() - start;
+  }
+
+  private static void escape(int b, StringBuilder out) {
+    out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+  }
+
+  private static boolean isAsciiCompatible(String encoding) {
+    return "UTF-8".equalsIgnoreCase(encoding)
+        || "ISO-8859-1".equalsIgnoreCase(encoding)
+        || "US-ASCII".equalsIgnoreCase(encoding);
   }
 
   /**
@@ -469,28 +472,209 @@ public abstract class UriUtils {
   public static String decode(String source, String encoding) throws UnsupportedEncodingException {
     Objects.requireNonNull(source, "'source' must not be null");
     Objects.requireNonNull(encoding, "'encoding' must not be empty");
+    int i = source.indexOf('%');
+    if (i < 0) {
+      return source;
+    }
+    if ("UTF-8".equalsIgnoreCase(encoding)) {
+      StringBuilder sb = new StringBuilder(source.length()).append(source, 0, i);
+      return decode(source, i, source.length(), sb).toString();
+    }
+
     int length = source.length();
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(length);
-    boolean changed = false;
-    for (int i = 0; i < length; i++) {
-      int ch = source.charAt(i);
+    byte[] bytes = new byte[length];
+    int n = 0;
+    for (int j = 0; j < length; j++) {
+      char ch = source.charAt(j);
       if (ch == '%') {
-        if ((i + 2) < length) {
-          char hex1 = source.charAt(i + 1);
-          char hex2 = source.charAt(i + 2);
-          int u = Character.digit(hex1, 16);
-          int l = Character.digit(hex2, 16);
-          bos.write((char) ((u << 4) + l));
-          i += 2;
-          changed = true;
-        } else {
-          throw new IllegalArgumentException("Invalid encoded sequence \"" + source.substring(i) + "\"");
+        bytes[n++] = (byte) unescape(source, j, length);
+        j += 2;
+      } else {
+        bytes[n++] = (byte) ch;
+      }
+    }
+    return new String(bytes, 0, n, encoding);
+  }
+
+  /**
+   * Decode percent-escapes in {@code source} as UTF-8. When there aren't any {@code source} itself is returned.
+   *
+   * @throws IllegalArgumentException if an escape is cut short or isn't hex
+   */
+  public static CharSequence decode(CharSequence source) {
+    int len = source.length();
+    for (int i = 0; i < len; i++) {
+      if ('%' == source.charAt(i)) {
+        StringBuilder sb = new StringBuilder(len).append(source, 0, i);
+        return decode(source, i, len, sb);
+      }
+    }
+    return source;
+  }
+
+  /**
+   * Append {@code source} from {@code start} to {@code end} to {@code out}, decoding percent-escapes as UTF-8.
+   * Malformed UTF-8 becomes U+FFFD.
+   *
+   * @throws IllegalArgumentException if an escape is cut short or isn't hex
+   */
+  public static StringBuilder decode(CharSequence source, int start, int end, StringBuilder out) {
+    int cp = 0;
+    int pending = 0;
+    int min = 0;
+    for (int i = start; i < end; ) {
+      char c = source.charAt(i);
+      if ('%' != c) {
+        if (pending > 0) {
+          out.append('\uFFFD');
+          pending = 0;
+        }
+        out.append(c);
+        i++;
+        continue;
+      }
+
+      int b = unescape(source, i, end);
+      i += 3;
+      if (pending > 0) {
+        if (0x80 == (b & 0xC0)) {
+          cp = (cp << 6) | (b & 0x3F);
+          if (0 == --pending) {
+            if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= 0xD800 && cp <= 0xDFFF)) {
+              out.append('\uFFFD');
+            } else {
+              out.appendCodePoint(cp);
+            }
+          }
+          continue;
+        }
+        out.append('\uFFFD');
+        pending = 0;
+      }
+      if (b < 0x80) {
+        out.append((char) b);
+      } else if (0xC0 == (b & 0xE0)) {
+        cp = b & 0x1F;
+        pending = 1;
+        min = 0x80;
+      } else if (0xE0 == (b & 0xF0)) {
+        cp = b & 0x0F;
+        pending = 2;
+        min = 0x800;
+      } else if (0xF0 == (b & 0xF8)) {
+        cp = b & 0x07;
+        pending = 3;
+        min = 0x10000;
+      } else {
+        out.append('\uFFFD');
+      }
+    }
+    if (pending > 0) {
+      out.append('\uFFFD');
+    }
+    return out;
+  }
+
+  /**
+   * Copy the bytes remaining in {@code src} to {@code dst}, replacing percent-escapes with the bytes they stand for.
+   * {@code src} and {@code dst} may be the same buffer, since decoding never writes ahead of where it reads.
+   *
+   * @return the number of bytes written to {@code dst}
+   * @throws IllegalArgumentException if an escape is cut short or isn't hex
+   */
+  public static int decode(ByteBuffer src, ByteBuffer dst) {
+    int start = dst.position();
+    int limit = src.limit();
+    for (int i = src.position(); i < limit; ) {
+      byte b = src.get(i);
+      if ('%' == b) {
+        if (i + 2 >= limit) {
+          throw new IllegalArgumentException("Invalid encoded sequence at " + i);
         }
+        dst.put((byte) ((hex(src.get(i + 1)) << 4) | hex(src.get(i + 2))));
+        i += 3;
       } else {
-        bos.write(ch);
+        dst.put(b);
+        i++;
+      }
+    }
+    src.position(limit);
+    return dst.position() - start;
+  }
+
+  private static int unescape(CharSequence source, int i, int end) {
+    if (i + 2 >= end) {
+      throw new IllegalArgumentException("Invalid encoded sequence \"" + source.subSequence(i, end) + "\"");
+    }
+    return (hex(source.charAt(i + 1)) << 4) | hex(source.charAt(i + 2));
+  }
+
+  private static int hex(int c) {
+    int d = Character.digit(c, 16);
+    if (d < 0) {
+      throw new IllegalArgumentException("Invalid hex digit '" + (char) c + "' in encoded sequence");
+    }
+    return d;
+  }
+
+  /**
+   * The characters each part of a URI may contain without being escaped (RFC 3986, appendix A), as a pair of 64-bit
+   * masks covering US-ASCII.
+   */
+  public enum Component {
+    SCHEME(ALPHA + DIGIT + "+-."),
+    AUTHORITY(UNRESERVED + SUB_DELIMS + ":@[]"),
+    USER_INFO(UNRESERVED + SUB_DELIMS + ":"),
+    HOST(UNRESERVED + SUB_DELIMS),
+    PORT(DIGIT),
+    SEGMENT(PCHAR),
+    PATH(PCHAR + "/"),
+    QUERY(PCHAR + "/?"),
+    QUERY_PARAM(PCHAR + "/?", "=+&"),
+    FRAGMENT(PCHAR + "/?");
+
+    private final long low;
+    private final long high;
+
+    Component(String allowed) {
+      this(allowed, "");
+    }
+
+    Component(String allowed, String excluded) {
+      long low = 0;
+      long high = 0;
+      for (int i = 0; i < allowed.length(); i++) {
+        char c = allowed.charAt(i);
+        if (excluded.indexOf(c) < 0) {
+          if (c < 64) {
+            low |= 1L << c;
+          } else {
+            high |= 1L << (c - 64);
+          }
+        }
+      }
+      this.low = low;
+      this.high = high;
+    }
+
+    public boolean allows(int c) {
+      if (c < 64) {
+        return c >= 0 && 0 != (low & (1L << c));
+      }
+      return c < 128 && 0 != (high & (1L << (c - 64)));
+    }
+
+    /**
+     * @return the index of the first character from {@code start} to {@code end} that isn't allowed, or -1
+     */
+    public int indexOfIllegal(CharSequence s, int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (!allows(s.charAt(i))) {
+          return i;
+        }
       }
+      return -1;
     }
-    return changed ? new String(bos.toByteArray(), encoding) : source;
   }
 
 }
@@ -11,7 +11,9 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.SortedSet;
+import java.util.TimeZone;
 import java.util.TreeSet;
 
 
@@ -20,21 +22,188 @@ import java.util.TreeSet;
  */
 public class HttpHeaderUtils {
 
-  private static final DateFormat RFC2616_DATE_FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z");
+  private static final String[] DAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+  private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+                                          "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+  // RFC 850 and asctime() dates are obsolete, but clients may still send them (RFC 2616, 3.3.1)
+  private static final ThreadLocal<DateFormat[]> OBSOLETE_DATE_FORMATS = new ThreadLocal<DateFormat[]>() {
+    @Override protected DateFormat[] initialValue() {
+      DateFormat[] formats = new DateFormat[]{
+          new SimpleDateFormat("EEEE, dd-MMM-yy HH:mm:ss zzz", Locale.US),
+          new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.US),
+          new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US)
+      };
+      for (DateFormat df : formats) {
+        df.setTimeZone(GMT);
+      }
+      return formats;
+    }
+  };
+  private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+  private static volatile CachedDate currentDate = new CachedDate(System.currentTimeMillis());
+
+  /**
+   * The current time formatted for a {@code Date} header. The string is only rebuilt when the clock has moved on to
+   * another second, so this is cheap enough to call for every response.
+   */
+  public static String currentDate() {
+    return cachedDate().text;
+  }
+
+  /**
+   * The ASCII bytes of {@link #currentDate()}. The array is shared and must not be modified.
+   */
+  public static byte[] currentDateBytes() {
+    return cachedDate().bytes;
+  }
 
   public static Date parseDate(String s) {
-    synchronized (RFC2616_DATE_FORMAT) {
+    long millis = parseDateMillis(s);
+    if (millis >= 0) {
+      return new Date(millis);
+    }
+    for (DateFormat df : OBSOLETE_DATE_FORMATS.get()) {
       try {
-        return RFC2616_DATE_FORMAT.parse(s);
-      } catch (ParseException e) {
-        return null;
+        return df.parse(s);
+      } catch (ParseException ignored) {
       }
     }
+    return null;
+  }
+
+  /**
+   * Parse an RFC 1123 date such as {@code Sun, 06 Nov 1994 08:49:37 GMT} without allocating.
+   *
+   * @return milliseconds since the epoch, or -1 if {@code s} isn't an RFC 1123 date
+   */
+  public static long parseDateMillis(CharSequence s) {
+    if (null == s || s.length() != 29 || ',' != s.charAt(3) || ' ' != s.charAt(4) || ' ' != s.charAt(7)
+        || ' ' != s.charAt(11) || ' ' != s.charAt(16) || ':' != s.charAt(19) || ':' != s.charAt(22)
+        || ' ' != s.charAt(25) || 'G' != s.charAt(26) || 'M' != s.charAt(27) || 'T' != s.charAt(28)) {
+      return -1;
+    }
+    int day = digits(s, 5, 2);
+    int month = month(s, 8);
+    int year = digits(s, 12, 4);
+    int hour = digits(s, 17, 2);
+    int minute = digits(s, 20, 2);
+    int second = digits(s, 23, 2);
+    if (day < 1 || day > 31 || month < 0 || year < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+        || second < 0 || second > 60) {
+      return -1;
+    }
+    long days = daysFromCivil(year, month + 1, day);
+    return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
   }
 
   public static String formatDate(Date d) {
-    synchronized (RFC2616_DATE_FORMAT) {
-      return RFC2616_DATE_FORMAT.format(d);
+    return formatDate(d.getTime());
+  }
+
+  public static String formatDate(long millis) {
+    return new String(formatDateChars(millis));
+  }
+
+  private static char[] formatDateChars(long millis) {
+    long secs = floorDiv(millis, 1000);
+    long days = floorDiv(secs, 86400);
+    int secOfDay = (int) (secs - days * 86400);
+
+    // Civil date from days since the epoch, after Howard Hinnant's days_from_civil/civil_from_days
+    long z = days + 719468;
+    long era = floorDiv(z, 146097);
+    long doe = z - era * 146097;
+    long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    long mp = (5 * doy + 2) / 153;
+    int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+    char[] c = "EEE, dd MMM yyyy HH:mm:ss GMT".toCharArray();
+    DAYS[(int) floorMod(days + 4, 7)].getChars(0, 3, c, 0);
+    put(c, 5, day, 2);
+    MONTHS[month - 1].getChars(0, 3, c, 8);
+    put(c, 12, year, 4);
+    put(c, 17, secOfDay / 3600, 2);
+    put(c, 20, (secOfDay / 60) % 60, 2);
+    put(c, 23, secOfDay % 60, 2);
+    return c;
+  }
+
+  private static CachedDate cachedDate() {
+    long now = System.currentTimeMillis();
+    CachedDate d = currentDate;
+    if (now / 1000 != d.second) {
+      // Racing threads may each format the new second, but they all come up with the same thing
+      d = new CachedDate(now);
+      currentDate = d;
+    }
+    return d;
+  }
+
+  private static long daysFromCivil(int year, int month, int day) {
+    int y = (month <= 2 ? year - 1 : year);
+    long era = floorDiv(y, 400);
+    long yoe = y - era * 400;
+    long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  private static int digits(CharSequence s, int start, int len) {
+    int n = 0;
+    for (int i = start; i < start + len; i++) {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9) {
+        return -1;
+      }
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  private static int month(CharSequence s, int start) {
+    for (int i = 0; i < MONTHS.length; i++) {
+      String m = MONTHS[i];
+      if (m.charAt(0) == s.charAt(start) && m.charAt(1) == s.charAt(start + 1) && m.charAt(2) == s.charAt(start + 2)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static void put(char[] c, int start, int n, int len) {
+    for (int i = start + len - 1; i >= start; i--) {
+      c[i] = (char) ('0' + n % 10);
+      n /= 10;
+    }
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return ((x % y != 0) && ((x ^ y) < 0) ? q - 1 : q);
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+
+  private static class CachedDate {
+    private final long second;
+    private final String text;
+    private final byte[] bytes;
+
+    private CachedDate(long millis) {
+      this.second = millis / 1000;
+      char[] c = formatDateChars(millis);
+      this.text = new String(c);
+      this.bytes = new byte[c.length];
+      for (int i = 0; i < c.length; i++) {
+        bytes[i] = (byte) c[i];
+      }
     }
   }
 
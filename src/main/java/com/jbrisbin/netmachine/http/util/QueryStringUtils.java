@@ -0,0 +1,172 @@
+package com.jbrisbin.netmachine.http.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scans {@code application/x-www-form-urlencoded} query strings in place. Looking up one parameter walks the raw
+ * query and only decodes the names that could match and the values that do, so nothing is built for the parameters
+ * nobody asked for.
+ * <p/>
+ * Parameters are separated by {@code &}, a parameter without {@code =} has an empty value, {@code +} is a space and
+ * percent-escapes are decoded as UTF-8, the same as Netty's {@code QueryStringDecoder}.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public abstract class QueryStringUtils {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * @return the first value of {@code name} in {@code query}, or {@literal null} if it isn't there
+   */
+  public static String param(CharSequence query, String name) {
+    if (null == query) {
+      return null;
+    }
+    int len = query.length();
+    for (int start = 0; start < len; ) {
+      int end = indexOf(query, '&', start, len);
+      int eq = indexOf(query, '=', start, end);
+      if (nameMatches(query, start, eq, name)) {
+        return (eq < end ? decode(query, eq + 1, end) : "");
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  /**
+   * @return every value of {@code name} in {@code query}, or {@literal null} if it isn't there
+   */
+  public static List<String> params(CharSequence query, String name) {
+    if (null == query) {
+      return null;
+    }
+    List<String> values = null;
+    int len = query.length();
+    for (int start = 0; start < len; ) {
+      int end = indexOf(query, '&', start, len);
+      int eq = indexOf(query, '=', start, end);
+      if (nameMatches(query, start, eq, name)) {
+        if (null == values) {
+          values = new ArrayList<>(1);
+        }
+        values.add(eq < end ? decode(query, eq + 1, end) : "");
+      }
+      start = end + 1;
+    }
+    return values;
+  }
+
+  /**
+   * Decode every parameter in {@code query}, keeping them in the order they first appear.
+   */
+  public static Map<String, List<String>> parse(CharSequence query) {
+    if (null == query || 0 == query.length()) {
+      return Collections.emptyMap();
+    }
+    Map<String, List<String>> params = new LinkedHashMap<>();
+    int len = query.length();
+    for (int start = 0; start < len; ) {
+      int end = indexOf(query, '&', start, len);
+      int eq = indexOf(query, '=', start, end);
+      if (eq > start) {
+        String name = decode(query, start, eq);
+        List<String> values = params.get(name);
+        if (null == values) {
+          values = new ArrayList<>(1);
+          params.put(name, values);
+        }
+        values.add(eq < end ? decode(query, eq + 1, end) : "");
+      }
+      start = end + 1;
+    }
+    return params;
+  }
+
+  /**
+   * Decode the {@code start} to {@code end} region of {@code s}. A region with nothing to decode is returned as is.
+   *
+   * @throws IllegalArgumentException if a percent-escape is cut short or isn't hex
+   */
+  public static String decode(CharSequence s, int start, int end) {
+    int i = start;
+    while (i < end && '%' != s.charAt(i) && '+' != s.charAt(i)) {
+      i++;
+    }
+    if (i == end) {
+      return s.subSequence(start, end).toString();
+    }
+
+    byte[] bytes = null;
+    StringBuilder sb = new StringBuilder(end - start);
+    sb.append(s, start, i);
+    while (i < end) {
+      char c = s.charAt(i);
+      if ('%' == c) {
+        if (null == bytes) {
+          bytes = new byte[(end - i) / 3];
+        }
+        int n = 0;
+        while (i < end && '%' == s.charAt(i)) {
+          if (i + 2 >= end) {
+            throw new IllegalArgumentException("Incomplete escape sequence at " + i + " in " + s);
+          }
+          bytes[n++] = (byte) ((hex(s, i + 1) << 4) | hex(s, i + 2));
+          i += 3;
+        }
+        sb.append(new String(bytes, 0, n, UTF_8));
+      } else {
+        sb.append('+' == c ? ' ' : c);
+        i++;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean nameMatches(CharSequence query, int start, int end, String name) {
+    int len = end - start;
+    // An encoded name is never shorter than the name it decodes to
+    if (0 == len || len < name.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      char c = query.charAt(i);
+      if ('%' == c || '+' == c) {
+        return name.equals(decode(query, start, end));
+      }
+    }
+    if (len != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (query.charAt(start + i) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(CharSequence s, char c, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (c == s.charAt(i)) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static int hex(CharSequence s, int i) {
+    int d = Character.digit(s.charAt(i), 16);
+    if (d < 0) {
+      throw new IllegalArgumentException("Invalid escape sequence at " + (i - 1) + " in " + s);
+    }
+    return d;
+  }
+
+}
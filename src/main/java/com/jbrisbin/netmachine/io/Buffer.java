@@ -4,8 +4,18 @@ import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * A growable wrapper around a {@link ByteBuffer}.
+ * <p/>
+ * Memory the Buffer allocates for itself comes from {@link BufferPool#DEFAULT} and goes back to it when the reference
+ * count drops to zero through {@link #release()}. Whoever a Buffer is handed to owns one reference: call {@link
+ * #retain()} to keep it past that point, and {@link #release()} when done. Buffers that wrap a {@link ByteBuffer} they
+ * didn't allocate never recycle that memory. A {@link #Buffer(Buffer) duplicate} holds a reference to the Buffer it
+ * was made from until it's released itself, so the memory they share isn't recycled while the duplicate can still
+ * read it.
+ *
  * @author Jon Brisbin <jon@jbrisbin.com>
  */
 public class Buffer implements Comparable<Buffer> {
@@ -14,9 +24,17 @@ public class Buffer implements Comparable<Buffer> {
                                                                             "" + 1024 * 16));
   public static int MAX_BUFFER_SIZE = Integer.parseInt(System.getProperty("netmachine.max_buffer_size",
                                                                           "" + 1024 * 1000));
+  public static int GROWTH_FACTOR = Integer.parseInt(System.getProperty("netmachine.buffer_growth_factor", "" + 2));
 
   private ByteBuffer buffer;
   private final boolean dynamic;
+  private final BufferPool pool = BufferPool.DEFAULT;
+  // Whether the current ByteBuffer came from the pool and must be given back to it
+  private boolean pooled = false;
+  private Object leakTracker;
+  // The Buffer this one duplicates, which is retained for as long as this one shares its memory
+  private Buffer source;
+  private final AtomicInteger refCnt = new AtomicInteger(1);
 
   public Buffer() {
     dynamic = true;
@@ -25,7 +43,8 @@ public class Buffer implements Comparable<Buffer> {
   public Buffer(int atLeast, boolean fixed) {
     if (fixed) {
       if (atLeast <= MAX_BUFFER_SIZE) {
-        buffer = ByteBuffer.allocateDirect(atLeast);
+        buffer = allocate(atLeast);
+        buffer.limit(atLeast);
       } else {
         throw new IllegalArgumentException("Requested buffer size exceeds maximum allowed (" + MAX_BUFFER_SIZE + ")");
       }
@@ -38,6 +57,7 @@ public class Buffer implements Comparable<Buffer> {
   public Buffer(Buffer bufferToCopy) {
     this.dynamic = bufferToCopy.dynamic;
     this.buffer = bufferToCopy.buffer.duplicate();
+    this.source = bufferToCopy.retain();
   }
 
   public Buffer(ByteBuffer bufferToStartWith) {
@@ -45,6 +65,18 @@ public class Buffer implements Comparable<Buffer> {
     this.buffer = bufferToStartWith;
   }
 
+  /**
+   * Wrap the remaining bytes of existing buffers without copying them. A single buffer is wrapped as is, several are
+   * chained into a {@link CompositeBuffer}. The result shares its content with the buffers passed in and never gives
+   * that memory to the pool, so it's only safe to use for as long as the owner of those buffers leaves them alone.
+   */
+  public static Buffer wrap(ByteBuffer... buffers) {
+    if (1 == buffers.length) {
+      return new Buffer(buffers[0]);
+    }
+    return CompositeBuffer.wrap(buffers);
+  }
+
   public static Buffer wrap(String str) {
     Buffer b = new Buffer(str.length(), false);
     b.append(str);
@@ -63,8 +95,19 @@ public class Buffer implements Comparable<Buffer> {
     return (null == buffer ? SMALL_BUFFER_SIZE : buffer.remaining());
   }
 
+  /**
+   * Drop the contents. Pooled memory only goes back to the pool if this is the last reference to it; otherwise a
+   * duplicate or another holder may still be reading it, so it's left to the GC.
+   */
   public Buffer clear() {
-    if (null != buffer) buffer = null;
+    if (pooled) {
+      if (1 == refCnt.get()) {
+        pool.recycle(buffer);
+      }
+      pooled = false;
+    }
+    buffer = null;
+    releaseSource();
     return this;
   }
 
@@ -99,20 +142,16 @@ public class Buffer implements Comparable<Buffer> {
   }
 
   public Buffer slice(int start, int len) {
-    buffer.mark();
-    ByteBuffer newBuff = ByteBuffer.allocateDirect(len);
-    buffer.position(start);
-    buffer.limit(len);
-    newBuff.put(buffer);
-    buffer.reset();
-    buffer.limit(buffer.capacity());
-    return new Buffer(newBuff);
+    ByteBuffer src = buffer.duplicate();
+    src.limit(start + len);
+    src.position(start);
+    Buffer b = new Buffer(len, true);
+    b.buffer.put(src);
+    return b;
   }
 
   public Buffer append(String s) {
-    ensureCapacity(s.length());
-    buffer.put(s.getBytes());
-    return this;
+    return append(s.getBytes());
   }
 
   public Buffer append(ByteBuffer b) {
@@ -123,7 +162,10 @@ public class Buffer implements Comparable<Buffer> {
 
   public Buffer append(Buffer b) {
     ensureCapacity(b.remaining());
-    buffer.put(b.byteBuffer());
+    // Segment by segment, so a CompositeBuffer isn't first copied into one buffer
+    for (ByteBuffer bb : b.byteBuffers()) {
+      buffer.put(bb);
+    }
     return this;
   }
 
@@ -147,6 +189,73 @@ public class Buffer implements Comparable<Buffer> {
     return buffer;
   }
 
+  /**
+   * The buffers holding this Buffer's contents, in order, suitable for a gathering write.
+   */
+  public ByteBuffer[] byteBuffers() {
+    return (null != buffer ? new ByteBuffer[]{buffer} : new ByteBuffer[0]);
+  }
+
+  public int refCnt() {
+    return refCnt.get();
+  }
+
+  public Buffer retain() {
+    for (; ; ) {
+      int cnt = refCnt.get();
+      if (cnt <= 0) {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+      if (refCnt.compareAndSet(cnt, cnt + 1)) {
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Drop a reference to this Buffer, giving its memory back to the pool once no references are left.
+   *
+   * @return {@literal true} if this was the last reference
+   */
+  public boolean release() {
+    for (; ; ) {
+      int cnt = refCnt.get();
+      if (cnt <= 0) {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+      if (refCnt.compareAndSet(cnt, cnt - 1)) {
+        if (cnt > 1) {
+          return false;
+        }
+        break;
+      }
+    }
+    pool.untrack(leakTracker);
+    leakTracker = null;
+    deallocate();
+    return true;
+  }
+
+  /**
+   * Called once the last reference has been released to give any pooled memory back.
+   */
+  protected void deallocate() {
+    if (pooled) {
+      pool.recycle(buffer);
+      buffer = null;
+      pooled = false;
+    }
+    releaseSource();
+  }
+
+  private void releaseSource() {
+    if (null != source) {
+      Buffer s = source;
+      source = null;
+      s.release();
+    }
+  }
+
   @Override public String toString() {
     return null != buffer ? buffer.toString() : "<EMPTY>";
   }
@@ -155,17 +264,39 @@ public class Buffer implements Comparable<Buffer> {
     return (null != buffer ? this.buffer.compareTo(buffer.buffer) : -1);
   }
 
+  private ByteBuffer allocate(int size) {
+    ByteBuffer b = pool.acquire(size);
+    pooled = true;
+    if (null == leakTracker) {
+      leakTracker = pool.track(this);
+    }
+    return b;
+  }
+
   private void ensureCapacity(int atLeast) {
     if (null == buffer) {
-      buffer = ByteBuffer.allocateDirect(SMALL_BUFFER_SIZE);
+      if (atLeast > MAX_BUFFER_SIZE) {
+        throw new IllegalStateException("Requested buffer size exceeds maximum allowed (" + MAX_BUFFER_SIZE + ")");
+      }
+      buffer = allocate(Math.max(SMALL_BUFFER_SIZE, atLeast));
       return;
     }
     if (dynamic && buffer.remaining() < atLeast) {
-      if (buffer.capacity() + SMALL_BUFFER_SIZE <= MAX_BUFFER_SIZE) {
-        ByteBuffer newBuff = ByteBuffer.allocateDirect(buffer.limit() + SMALL_BUFFER_SIZE);
-        buffer.flip();
-        newBuff.put(buffer);
+      int needed = buffer.position() + atLeast;
+      if (needed <= MAX_BUFFER_SIZE) {
+        // Growing geometrically means a long run of appends only copies the contents a logarithmic number of times
+        long grown = Math.max((long) buffer.capacity() * GROWTH_FACTOR, buffer.capacity() + SMALL_BUFFER_SIZE);
+        int size = (int) Math.max(needed, Math.min(MAX_BUFFER_SIZE, grown));
+        ByteBuffer old = buffer;
+        boolean wasPooled = pooled;
+        ByteBuffer newBuff = allocate(size);
+        old.flip();
+        newBuff.put(old);
         buffer = newBuff;
+        // A duplicate or another holder may still be reading the old memory
+        if (wasPooled && 1 == refCnt.get()) {
+          pool.recycle(old);
+        }
       } else {
         throw new IllegalStateException("Requested buffer size exceeds maximum allowed (" + MAX_BUFFER_SIZE + ")");
       }
@@ -0,0 +1,250 @@
+package com.jbrisbin.netmachine.io;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of direct {@link ByteBuffer}s in power-of-two size classes. Buffers are recycled through a small per-thread
+ * cache first and a bounded shared cache second; anything that doesn't fit in either is left to the GC. Requests
+ * larger than the largest size class are allocated directly and never pooled.
+ * <p/>
+ * With leak detection on ({@code -Dnetmachine.buffer_pool.leak_detection=true}) every pooled {@link Buffer} records
+ * where it was allocated, and any that are garbage collected without being {@link Buffer#release() released} are
+ * logged and counted.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class BufferPool {
+
+  public static int MIN_SIZE_CLASS = Integer.parseInt(System.getProperty("netmachine.buffer_pool.min_size",
+                                                                         "" + 512));
+  public static int THREAD_CACHE_SIZE = Integer.parseInt(System.getProperty("netmachine.buffer_pool.thread_cache_size",
+                                                                            "" + 8));
+  public static int SHARED_CACHE_SIZE = Integer.parseInt(System.getProperty("netmachine.buffer_pool.shared_cache_size",
+                                                                            "" + 64));
+  public static boolean LEAK_DETECTION = Boolean.getBoolean("netmachine.buffer_pool.leak_detection");
+
+  public static final BufferPool DEFAULT = new BufferPool(MIN_SIZE_CLASS,
+                                                          Buffer.MAX_BUFFER_SIZE,
+                                                          THREAD_CACHE_SIZE,
+                                                          SHARED_CACHE_SIZE,
+                                                          LEAK_DETECTION);
+
+  private static final Logger log = LoggerFactory.getLogger(BufferPool.class);
+
+  private final int minShift;
+  private final int[] sizeClasses;
+  private final int threadCacheSize;
+  private final int sharedCacheSize;
+  private final boolean leakDetection;
+  private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches = new ThreadLocal<ArrayDeque<ByteBuffer>[]>() {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override protected ArrayDeque<ByteBuffer>[] initialValue() {
+      ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[sizeClasses.length];
+      for (int i = 0; i < caches.length; i++) {
+        caches[i] = new ArrayDeque<>(threadCacheSize);
+      }
+      return caches;
+    }
+  };
+  private final ConcurrentLinkedQueue<ByteBuffer>[] sharedCaches;
+  private final AtomicInteger[] sharedCounts;
+
+  private final ReferenceQueue<Buffer> leaked = new ReferenceQueue<>();
+  private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+
+  private final AtomicLong allocations = new AtomicLong();
+  private final AtomicLong threadCacheHits = new AtomicLong();
+  private final AtomicLong sharedCacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong unpooled = new AtomicLong();
+  private final AtomicLong recycled = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong leaks = new AtomicLong();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public BufferPool(int minSize, int maxSize, int threadCacheSize, int sharedCacheSize, boolean leakDetection) {
+    this.minShift = 32 - Integer.numberOfLeadingZeros(Math.max(1, minSize) - 1);
+    int maxShift = Math.max(minShift, 32 - Integer.numberOfLeadingZeros(maxSize - 1));
+    this.sizeClasses = new int[maxShift - minShift + 1];
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sizeClasses[i] = 1 << (minShift + i);
+    }
+    this.threadCacheSize = threadCacheSize;
+    this.sharedCacheSize = sharedCacheSize;
+    this.leakDetection = leakDetection;
+
+    this.sharedCaches = new ConcurrentLinkedQueue[sizeClasses.length];
+    this.sharedCounts = new AtomicInteger[sizeClasses.length];
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sharedCaches[i] = new ConcurrentLinkedQueue<>();
+      sharedCounts[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * Get a cleared direct buffer with a capacity of at least {@code size} bytes.
+   */
+  public ByteBuffer acquire(int size) {
+    allocations.incrementAndGet();
+    if (leakDetection) {
+      reportLeaks();
+    }
+
+    int sc = sizeClass(size);
+    if (sc < 0) {
+      unpooled.incrementAndGet();
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    ByteBuffer b = threadCaches.get()[sc].pollLast();
+    if (null != b) {
+      threadCacheHits.incrementAndGet();
+      return b;
+    }
+    b = sharedCaches[sc].poll();
+    if (null != b) {
+      sharedCounts[sc].decrementAndGet();
+      sharedCacheHits.incrementAndGet();
+      return b;
+    }
+    misses.incrementAndGet();
+    return ByteBuffer.allocateDirect(sizeClasses[sc]);
+  }
+
+  /**
+   * Give a buffer obtained from {@link #acquire(int)} back to the pool. The caller must not touch it afterwards.
+   */
+  public void recycle(ByteBuffer b) {
+    int sc = sizeClass(b.capacity());
+    if (sc < 0 || !b.isDirect() || sizeClasses[sc] != b.capacity()) {
+      return;
+    }
+    b.clear();
+
+    ArrayDeque<ByteBuffer> cache = threadCaches.get()[sc];
+    if (cache.size() < threadCacheSize) {
+      cache.addLast(b);
+      recycled.incrementAndGet();
+    } else if (sharedCounts[sc].incrementAndGet() <= sharedCacheSize) {
+      sharedCaches[sc].offer(b);
+      recycled.incrementAndGet();
+    } else {
+      sharedCounts[sc].decrementAndGet();
+      discarded.incrementAndGet();
+    }
+  }
+
+  public boolean isPooled(int size) {
+    return sizeClass(size) >= 0;
+  }
+
+  public boolean isLeakDetectionEnabled() {
+    return leakDetection;
+  }
+
+  public long allocations() {
+    return allocations.get();
+  }
+
+  public long threadCacheHits() {
+    return threadCacheHits.get();
+  }
+
+  public long sharedCacheHits() {
+    return sharedCacheHits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long unpooled() {
+    return unpooled.get();
+  }
+
+  public long recycled() {
+    return recycled.get();
+  }
+
+  public long discarded() {
+    return discarded.get();
+  }
+
+  public long leaks() {
+    return leaks.get();
+  }
+
+  public int sharedCacheSize() {
+    int size = 0;
+    for (AtomicInteger count : sharedCounts) {
+      size += count.get();
+    }
+    return size;
+  }
+
+  @Override public String toString() {
+    return "BufferPool{" +
+        "allocations=" + allocations +
+        ", threadCacheHits=" + threadCacheHits +
+        ", sharedCacheHits=" + sharedCacheHits +
+        ", misses=" + misses +
+        ", unpooled=" + unpooled +
+        ", recycled=" + recycled +
+        ", discarded=" + discarded +
+        ", leaks=" + leaks +
+        '}';
+  }
+
+  Object track(Buffer buffer) {
+    if (!leakDetection) {
+      return null;
+    }
+    LeakTracker tracker = new LeakTracker(buffer, leaked);
+    trackers.add(tracker);
+    return tracker;
+  }
+
+  void untrack(Object tracker) {
+    if (null != tracker) {
+      ((LeakTracker) tracker).clear();
+      trackers.remove(tracker);
+    }
+  }
+
+  private int sizeClass(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+    int sc = Math.max(0, shift - minShift);
+    return (sc < sizeClasses.length ? sc : -1);
+  }
+
+  private void reportLeaks() {
+    LeakTracker tracker;
+    while (null != (tracker = (LeakTracker) leaked.poll())) {
+      if (trackers.remove(tracker)) {
+        leaks.incrementAndGet();
+        log.error("Buffer was garbage collected without being released", tracker.allocatedAt);
+      }
+    }
+  }
+
+  private static class LeakTracker extends PhantomReference<Buffer> {
+    private final Throwable allocatedAt = new Throwable("Buffer allocated here");
+
+    private LeakTracker(Buffer referent, ReferenceQueue<? super Buffer> q) {
+      super(referent, q);
+    }
+  }
+
+}
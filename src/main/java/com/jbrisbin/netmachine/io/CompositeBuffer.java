@@ -0,0 +1,302 @@
+package com.jbrisbin.netmachine.io;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A {@link Buffer} made of a chain of segments instead of one contiguous region. Appending never copies what has
+ * already been written: once the last segment is full another one is taken from the pool, and {@link
+ * #addSegment(ByteBuffer)} chains an existing buffer in without copying it at all. {@link #transferTo} hands every
+ * segment to the channel in one gathering write.
+ * <p/>
+ * {@link #byteBuffer()} has to copy the segments into a single buffer, so prefer {@link #byteBuffers()} wherever a
+ * list of buffers will do.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class CompositeBuffer extends Buffer {
+
+  private final BufferPool pool = BufferPool.DEFAULT;
+  private final int segmentSize;
+  private ByteBuffer[] segments = new ByteBuffer[4];
+  // Which segments came from the pool and have to go back to it
+  private boolean[] pooled = new boolean[4];
+  // How many bytes have been put in each segment, whether or not it's been flipped since
+  private int[] lengths = new int[4];
+  private int count = 0;
+  private long size = 0;
+  private Object leakTracker;
+
+  public CompositeBuffer() {
+    this(SMALL_BUFFER_SIZE);
+  }
+
+  public CompositeBuffer(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  public static CompositeBuffer wrap(ByteBuffer... buffers) {
+    CompositeBuffer b = new CompositeBuffer();
+    for (ByteBuffer bb : buffers) {
+      b.addSegment(bb);
+    }
+    return b.flip();
+  }
+
+  /**
+   * Chain the remaining bytes of {@code bb} onto the end of this buffer without copying them. The segment shares its
+   * content with {@code bb} and is never given to the pool.
+   */
+  public CompositeBuffer addSegment(ByteBuffer bb) {
+    int len = bb.remaining();
+    checkSize(len);
+    ByteBuffer segment = bb.slice();
+    segment.position(len);
+    add(segment, false);
+    lengths[count - 1] = len;
+    size += len;
+    return this;
+  }
+
+  public int segments() {
+    return count;
+  }
+
+  @Override public int position() {
+    int pos = 0;
+    for (int i = 0; i < count; i++) {
+      pos += segments[i].position();
+    }
+    return pos;
+  }
+
+  @Override public int capacity() {
+    int cap = 0;
+    for (int i = 0; i < count; i++) {
+      cap += segments[i].capacity();
+    }
+    return cap;
+  }
+
+  @Override public int remaining() {
+    int rem = 0;
+    for (int i = 0; i < count; i++) {
+      rem += segments[i].remaining();
+    }
+    return rem;
+  }
+
+  @Override public CompositeBuffer clear() {
+    // Like Buffer.clear(), only recycle what no other holder can still be reading
+    recycleSegments(1 == refCnt());
+    return this;
+  }
+
+  @Override public CompositeBuffer flip() {
+    for (int i = 0; i < count; i++) {
+      segments[i].flip();
+    }
+    return this;
+  }
+
+  @Override public CompositeBuffer rewind() {
+    for (int i = 0; i < count; i++) {
+      segments[i].rewind();
+    }
+    return this;
+  }
+
+  @Override public byte read() {
+    for (int i = 0; i < count; i++) {
+      if (segments[i].hasRemaining()) {
+        return segments[i].get();
+      }
+    }
+    throw new BufferUnderflowException();
+  }
+
+  @Override public CompositeBuffer read(byte[] b) {
+    if (b.length > remaining()) {
+      throw new BufferUnderflowException();
+    }
+    int off = 0;
+    for (int i = 0; i < count && off < b.length; i++) {
+      int len = Math.min(segments[i].remaining(), b.length - off);
+      segments[i].get(b, off, len);
+      off += len;
+    }
+    return this;
+  }
+
+  @Override public String string() {
+    if (0 == count) {
+      return null;
+    }
+    byte[] b = new byte[remaining()];
+    read(b);
+    return new String(b);
+  }
+
+  @Override public Buffer slice(int start, int len) {
+    if (start < 0 || len < 0 || start + len > size) {
+      throw new IllegalArgumentException("Can't slice " + len + " bytes at " + start + " out of " + size);
+    }
+    Buffer b = new Buffer(len, true);
+    int segStart = 0;
+    for (int i = 0; i < count && len > 0; i++) {
+      ByteBuffer seg = segments[i];
+      int segEnd = segStart + lengths[i];
+      if (start < segEnd) {
+        ByteBuffer src = seg.duplicate();
+        src.limit(Math.min(lengths[i], start - segStart + len));
+        src.position(start - segStart);
+        len -= src.remaining();
+        start += src.remaining();
+        b.byteBuffer().put(src);
+      }
+      segStart = segEnd;
+    }
+    return b;
+  }
+
+  @Override public CompositeBuffer append(String s) {
+    return append(s.getBytes());
+  }
+
+  @Override public CompositeBuffer append(ByteBuffer b) {
+    checkSize(b.remaining());
+    while (b.hasRemaining()) {
+      ByteBuffer seg = writable();
+      int len = Math.min(seg.remaining(), b.remaining());
+      ByteBuffer src = b.duplicate();
+      src.limit(src.position() + len);
+      seg.put(src);
+      lengths[count - 1] += len;
+      b.position(b.position() + len);
+      size += len;
+    }
+    return this;
+  }
+
+  @Override public CompositeBuffer append(Buffer b) {
+    for (ByteBuffer bb : b.byteBuffers()) {
+      append(bb);
+    }
+    return this;
+  }
+
+  @Override public CompositeBuffer append(byte b) {
+    checkSize(1);
+    writable().put(b);
+    lengths[count - 1]++;
+    size++;
+    return this;
+  }
+
+  @Override public CompositeBuffer append(byte[] b) {
+    return append(ByteBuffer.wrap(b));
+  }
+
+  @Override public int transferTo(WritableByteChannel channel) throws IOException {
+    if (channel instanceof GatheringByteChannel) {
+      return (int) ((GatheringByteChannel) channel).write(segments, 0, count);
+    }
+    int written = 0;
+    for (int i = 0; i < count; i++) {
+      ByteBuffer seg = segments[i];
+      if (seg.hasRemaining()) {
+        written += channel.write(seg);
+        if (seg.hasRemaining()) {
+          break;
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Copy the remaining bytes of every segment into a single buffer. The segments' positions are left alone.
+   */
+  @Override public ByteBuffer byteBuffer() {
+    if (0 == count) {
+      return null;
+    }
+    ByteBuffer b = ByteBuffer.allocateDirect(remaining());
+    for (int i = 0; i < count; i++) {
+      b.put(segments[i].duplicate());
+    }
+    b.flip();
+    return b;
+  }
+
+  @Override public ByteBuffer[] byteBuffers() {
+    return Arrays.copyOf(segments, count);
+  }
+
+  @Override public int compareTo(Buffer buffer) {
+    return (null != buffer ? byteBuffer().compareTo(buffer.byteBuffer()) : -1);
+  }
+
+  @Override public String toString() {
+    return "CompositeBuffer{" +
+        "segments=" + count +
+        ", size=" + size +
+        ", remaining=" + remaining() +
+        '}';
+  }
+
+  @Override protected void deallocate() {
+    recycleSegments(true);
+  }
+
+  private ByteBuffer writable() {
+    if (count > 0 && pooled[count - 1] && segments[count - 1].hasRemaining()) {
+      return segments[count - 1];
+    }
+    ByteBuffer seg = pool.acquire(segmentSize);
+    seg.limit(segmentSize);
+    if (null == leakTracker) {
+      leakTracker = pool.track(this);
+    }
+    add(seg, true);
+    return seg;
+  }
+
+  private void add(ByteBuffer segment, boolean fromPool) {
+    if (count == segments.length) {
+      segments = Arrays.copyOf(segments, count * 2);
+      pooled = Arrays.copyOf(pooled, count * 2);
+      lengths = Arrays.copyOf(lengths, count * 2);
+    }
+    segments[count] = segment;
+    pooled[count] = fromPool;
+    lengths[count] = 0;
+    count++;
+  }
+
+  private void checkSize(int len) {
+    if (size + len > MAX_BUFFER_SIZE) {
+      throw new IllegalStateException("Requested buffer size exceeds maximum allowed (" + MAX_BUFFER_SIZE + ")");
+    }
+  }
+
+  private void recycleSegments(boolean recycle) {
+    for (int i = 0; i < count; i++) {
+      if (pooled[i] && recycle) {
+        pool.recycle(segments[i]);
+      }
+      segments[i] = null;
+      pooled[i] = false;
+      lengths[i] = 0;
+    }
+    count = 0;
+    size = 0;
+    pool.untrack(leakTracker);
+    leakTracker = null;
+  }
+
+}
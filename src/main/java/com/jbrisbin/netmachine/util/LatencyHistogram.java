@@ -0,0 +1,91 @@
+package com.jbrisbin.netmachine.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies into power-of-two buckets of nanoseconds. Recording is a couple of atomic increments, so it can sit
+ * on a hot path; percentiles are only as precise as the bucket they fall in, reported as that bucket's upper bound.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucket(nanos));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long m;
+    while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+    }
+  }
+
+  /**
+   * Record the time since {@code startNanos}, as given by {@link System#nanoTime()}.
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long max(TimeUnit unit) {
+    return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+  }
+
+  public long mean(TimeUnit unit) {
+    long n = count.get();
+    return (0 == n ? 0 : unit.convert(total.get() / n, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the latency at or below which {@code percentile} percent of those recorded fall
+   */
+  public long percentile(double percentile, TimeUnit unit) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100, not " + percentile);
+    }
+    long n = count.get();
+    if (0 == n) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) {
+        long upper = (i >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+        return unit.convert(Math.min(upper, max.get()), TimeUnit.NANOSECONDS);
+      }
+    }
+    return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+  }
+
+  private static int bucket(long nanos) {
+    return (0 == nanos ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  @Override public String toString() {
+    return "LatencyHistogram{" +
+        "count=" + count() +
+        ", meanMicros=" + mean(TimeUnit.MICROSECONDS) +
+        ", p99Micros=" + percentile(99, TimeUnit.MICROSECONDS) +
+        ", maxMicros=" + max(TimeUnit.MICROSECONDS) +
+        '}';
+  }
+
+}
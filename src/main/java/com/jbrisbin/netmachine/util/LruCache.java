@@ -0,0 +1,141 @@
+package com.jbrisbin.netmachine.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe LRU cache. Entries are spread over a number of independently locked stripes, each of which
+ * evicts its own least-recently-used entry once it is full, so readers on different stripes never contend. A capacity
+ * of 0 turns the cache off: nothing is stored and every lookup is counted as a miss.
+ *
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class LruCache<K, V> {
+
+  private static final int MAX_STRIPES = 16;
+
+  private final int capacity;
+  private final Stripe<K, V>[] stripes;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public LruCache(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Cache capacity cannot be negative (" + capacity + ")");
+    }
+    this.capacity = capacity;
+
+    int count = 1;
+    while (count < MAX_STRIPES && count * 2 <= capacity / 8) {
+      count *= 2;
+    }
+    stripes = new Stripe[capacity > 0 ? count : 0];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe<>(capacity / count + (i < capacity % count ? 1 : 0), evictions);
+    }
+  }
+
+  public V get(K key) {
+    if (0 == stripes.length) {
+      misses.incrementAndGet();
+      return null;
+    }
+    Stripe<K, V> stripe = stripe(key);
+    V value;
+    synchronized (stripe) {
+      value = stripe.get(key);
+    }
+    (null != value ? hits : misses).incrementAndGet();
+    return value;
+  }
+
+  public LruCache<K, V> put(K key, V value) {
+    if (0 == stripes.length) {
+      return this;
+    }
+    Stripe<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.put(key, value);
+    }
+    return this;
+  }
+
+  public LruCache<K, V> clear() {
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+    return this;
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long evictions() {
+    return evictions.get();
+  }
+
+  private Stripe<K, V> stripe(K key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return stripes[h & (stripes.length - 1)];
+  }
+
+  @Override public String toString() {
+    return "LruCache{" +
+        "capacity=" + capacity +
+        ", hits=" + hits +
+        ", misses=" + misses +
+        ", evictions=" + evictions +
+        '}';
+  }
+
+  private static class Stripe<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final AtomicLong evictions;
+
+    private Stripe(int capacity, AtomicLong evictions) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+      this.evictions = evictions;
+    }
+
+    @Override protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() > capacity) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.jbrisbin.netmachine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jbrisbin.netmachine.http.HttpResponse;
+import com.jbrisbin.netmachine.io.Buffer;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class BaseMessageTests {
+
+  @Test
+  public void testQueuedWritesAreDeliveredInOrder() {
+    final List<Object> written = new ArrayList<>();
+    HttpResponse response = new HttpResponse();
+    response.write("one").write("two");
+
+    response.writeHandler(new WriteHandler<Object>() {
+      @Override public void write(Object obj, Handler<Void> completionHandler) {
+        written.add(obj);
+      }
+    });
+    response.write("three");
+
+    assertEquals(3, written.size());
+    assertEquals("one", written.get(0));
+    assertEquals("two", written.get(1));
+    assertEquals("three", written.get(2));
+    assertEquals(0, response.pendingWrites());
+  }
+
+  @Test
+  public void testPendingWritesAreBounded() {
+    HttpResponse response = new HttpResponse().maxPendingWrites(2);
+    response.write("one").write("two");
+    try {
+      response.write("three");
+      fail("Expected the third write to be refused");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(2, response.pendingWrites());
+  }
+
+  @Test
+  public void testDrainHandlerFiresWhenWritableAgain() {
+    final List<Object> drained = new ArrayList<>();
+    HttpResponse response = new HttpResponse().drainHandler(new Handler<Void>() {
+      @Override public void handle(Void v) {
+        drained.add(v);
+      }
+    });
+    assertFalse(response.writeQueueFull());
+
+    response.writable(false);
+    assertTrue(response.writeQueueFull());
+    assertTrue(drained.isEmpty());
+
+    response.writable(true);
+    assertFalse(response.writeQueueFull());
+    assertEquals(1, drained.size());
+
+    // Only a change from unwritable to writable drains
+    response.writable(true);
+    assertEquals(1, drained.size());
+  }
+
+  @Test
+  public void testHeaderAppendKeepsEveryValue() {
+    HttpResponse response = new HttpResponse()
+        .header("Vary", "Accept")
+        .header("vary", "Accept-Encoding", false);
+
+    assertEquals("Accept", response.header("VARY"));
+    assertEquals(Arrays.asList("Accept", "Accept-Encoding"), response.headers("Vary"));
+
+    response.header("Vary", "*");
+    assertEquals(Arrays.asList("*"), response.headers("Vary"));
+  }
+
+  @Test
+  public void testHeldReadsAreReplayedToTheReadHandler() {
+    final List<String> read = new ArrayList<>();
+    HttpResponse message = new HttpResponse();
+    message.handleRead(Buffer.wrap("dropped"));
+    message.holdReads();
+    message.handleRead(Buffer.wrap("one"));
+    message.handleRead(Buffer.wrap("two"));
+
+    message.readHandler(new Handler<Buffer>() {
+      @Override public void handle(Buffer buffer) {
+        read.add(buffer.string());
+      }
+    });
+    message.handleRead(Buffer.wrap("three"));
+
+    assertEquals(Arrays.asList("one", "two", "three"), read);
+  }
+
+}
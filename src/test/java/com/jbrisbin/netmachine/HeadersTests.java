@@ -0,0 +1,51 @@
+package com.jbrisbin.netmachine;
+
+import static com.jbrisbin.netmachine.http.HttpHeader.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class HeadersTests {
+
+  @Test
+  public void testCaseInsensitiveLookup() {
+    Headers headers = new Headers().add(CONTENT_TYPE, "text/plain").add("x-custom", "1");
+
+    assertEquals("text/plain", headers.get("content-type"));
+    assertEquals("text/plain", headers.get("CONTENT-TYPE"));
+    assertEquals("1", headers.get("X-Custom"));
+    assertTrue(headers.contains(CONTENT_TYPE));
+    assertNull(headers.get(ACCEPT));
+  }
+
+  @Test
+  public void testMultipleValuesKeepInsertionOrder() {
+    Headers headers = new Headers(1)
+        .add(VARY, "Accept")
+        .add(CACHE_CONTROL, "no-cache")
+        .add("vary", "Accept-Encoding");
+
+    assertEquals(Arrays.asList("Accept", "Accept-Encoding"), headers.getAll(VARY));
+    assertEquals(3, headers.size());
+    assertEquals(VARY, headers.name(0));
+    assertEquals(CACHE_CONTROL, headers.name(1));
+    assertEquals("Accept-Encoding", headers.value(2));
+    assertEquals(2, headers.names().size());
+
+    headers.set(VARY, "*");
+    assertEquals(Arrays.asList("*"), headers.getAll(VARY));
+    assertEquals(VARY, headers.name(0));
+    assertEquals(2, headers.size());
+
+    assertTrue(headers.remove("VARY"));
+    assertFalse(headers.remove(VARY));
+    assertEquals(1, headers.size());
+    assertEquals(CACHE_CONTROL, headers.name(0));
+  }
+
+}
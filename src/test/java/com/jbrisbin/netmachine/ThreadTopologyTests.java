@@ -0,0 +1,129 @@
+package com.jbrisbin.netmachine;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class ThreadTopologyTests {
+
+  @Test
+  public void testSharedTopologyUsesThreadPool() {
+    ThreadTopology shared = ThreadTopology.shared();
+    assertSame(ThreadPool.ACCEPTOR_POOL, shared.bossExecutor());
+    assertSame(ThreadPool.WORKER_POOL, shared.ioExecutor());
+    assertSame(ThreadPool.FILE_IO_POOL, shared.fileIoExecutor());
+    try {
+      shared.ioThreads(2);
+      fail("Expected the shared topology to refuse changes");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testTiersGetTheirOwnThreads() throws Exception {
+    ThreadTopology threads = new ThreadTopology().name("test").ioThreads(2).fileIoThreads(1).daemon(false);
+    try {
+      assertNotSame(threads.ioExecutor(), threads.fileIoExecutor());
+      Thread io = threadOf(threads.ioExecutor());
+      Thread file = threadOf(threads.fileIoExecutor());
+      assertTrue(io.getName().startsWith("test-io-"));
+      assertTrue(file.getName().startsWith("test-file-"));
+      assertFalse(file.isDaemon());
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  @Test
+  public void testThreadFactoryHookCreatesEveryThread() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    ThreadTopology threads = new ThreadTopology().threadFactory(new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        created.incrementAndGet();
+        Thread t = new Thread(r, "pinned");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    try {
+      assertEquals("pinned", threadOf(threads.fileIoExecutor()).getName());
+      assertEquals(1, created.get());
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  @Test
+  public void testTimerFollowsTheTopology() throws Exception {
+    assertSame(ThreadPool.TIMER, ThreadTopology.shared().timer());
+    assertTrue(threadOf(ThreadPool.TIMER).isDaemon());
+
+    // Netty names its timer thread itself, so only the daemon flag shows whose factory made it
+    ThreadTopology threads = new ThreadTopology().daemon(false);
+    try {
+      assertFalse(threadOf(threads.timer()).isDaemon());
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  @Test
+  public void testServerPoolsStopWithTheTopology() throws Exception {
+    ThreadTopology threads = new ThreadTopology().name("test");
+    ExecutorService business = threads.newExecutor("business", 1);
+    assertTrue(threadOf(business).getName().startsWith("test-business-"));
+
+    // The shared topology is never stopped, so it doesn't hold on to what it's given
+    ExecutorService kept = ThreadTopology.shared().newExecutor("business", 1);
+    ThreadTopology.shared().shutdown();
+    assertFalse(kept.isShutdown());
+    kept.shutdown();
+
+    threads.shutdown();
+    assertTrue(business.isShutdown());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testTopologyIsFixedOnceStarted() {
+    ThreadTopology threads = new ThreadTopology();
+    try {
+      threads.bossExecutor();
+      threads.bossThreads(2);
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  private static Thread threadOf(Timer timer) throws Exception {
+    final BlockingQueue<Thread> ran = new ArrayBlockingQueue<>(1);
+    timer.newTimeout(new TimerTask() {
+      @Override public void run(Timeout timeout) {
+        ran.offer(Thread.currentThread());
+      }
+    }, 1, TimeUnit.MILLISECONDS);
+    return ran.poll(5, TimeUnit.SECONDS);
+  }
+
+  private static Thread threadOf(ExecutorService executor) throws Exception {
+    return executor.submit(new Callable<Thread>() {
+      @Override public Thread call() {
+        return Thread.currentThread();
+      }
+    }).get();
+  }
+
+}
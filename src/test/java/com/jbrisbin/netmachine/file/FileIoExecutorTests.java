@@ -0,0 +1,144 @@
+package com.jbrisbin.netmachine.file;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.jbrisbin.netmachine.Handler;
+import com.jbrisbin.netmachine.ThreadPool;
+import com.jbrisbin.netmachine.io.Buffer;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class FileIoExecutorTests {
+
+  @Test
+  public void testAbortRefusesOnceTheQueueIsFull() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    FileIoExecutor executor = executor(FileIoExecutor.Saturation.ABORT);
+    try {
+      executor.execute(blockUntil(release));
+      executor.execute(blockUntil(release));
+      assertEquals(1, executor.queueDepth());
+      try {
+        executor.execute(blockUntil(release));
+        fail("Expected a full queue to refuse the task");
+      } catch (RejectedExecutionException expected) {
+      }
+      assertEquals(1, executor.rejected());
+      assertEquals(1, executor.maxQueueDepth());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBackoffWaitsForRoom() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    FileIoExecutor executor = executor(FileIoExecutor.Saturation.BACKOFF);
+    try {
+      executor.execute(blockUntil(release));
+      executor.execute(blockUntil(release));
+      new Thread() {
+        @Override public void run() {
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+          }
+          release.countDown();
+        }
+      }.start();
+      final CountDownLatch ran = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          ran.countDown();
+        }
+      });
+      assertTrue(ran.await(1, TimeUnit.SECONDS));
+      assertEquals(0, executor.rejected());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFileWritesAreTimed() throws Exception {
+    FileIoExecutor executor = executor(FileIoExecutor.Saturation.ABORT);
+    Path path = Files.createTempFile("netmachine", ".tmp");
+    try {
+      final CountDownLatch written = new CountDownLatch(1);
+      File f = File.open(path, executor, StandardOpenOption.WRITE);
+      f.close();
+      f.writeHandler().write(Buffer.wrap("hello"), new Handler<Void>() {
+        @Override public void handle(Void v) {
+          written.countDown();
+        }
+      });
+      assertTrue(written.await(1, TimeUnit.SECONDS));
+      assertEquals(1, executor.latency(FileIoExecutor.Operation.WRITE).count());
+      assertEquals("hello", new String(Files.readAllBytes(path), "UTF-8"));
+    } finally {
+      executor.shutdown();
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testSaturatedReadsFailRatherThanBlock() throws Exception {
+    assertEquals(FileIoExecutor.Saturation.ABORT, FileIoExecutor.SATURATION);
+
+    CountDownLatch release = new CountDownLatch(1);
+    FileIoExecutor executor = executor(FileIoExecutor.SATURATION);
+    Path path = Files.createTempFile("netmachine", ".tmp");
+    try {
+      Files.write(path, "hello".getBytes("UTF-8"));
+      File f = File.open(path, executor, StandardOpenOption.READ);
+      executor.execute(blockUntil(release));
+      executor.execute(blockUntil(release));
+
+      final CountDownLatch failed = new CountDownLatch(1);
+      f.readHandler(new Handler<Buffer>() {
+        @Override public void handle(Buffer b) {
+          b.release();
+        }
+      }).failureHandler(new Handler<Throwable>() {
+        @Override public void handle(Throwable t) {
+          if (t instanceof RejectedExecutionException) {
+            failed.countDown();
+          }
+        }
+      }).readFully();
+      assertTrue(failed.await(1, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+      Files.delete(path);
+    }
+  }
+
+  private static FileIoExecutor executor(FileIoExecutor.Saturation saturation) {
+    return new FileIoExecutor(1, 1, saturation, 1000, ThreadPool.threadFactory("test-file-"));
+  }
+
+  private static Runnable blockUntil(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override public void run() {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+}
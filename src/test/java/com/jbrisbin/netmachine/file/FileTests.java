@@ -0,0 +1,269 @@
+package com.jbrisbin.netmachine.file;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jbrisbin.netmachine.Handler;
+import com.jbrisbin.netmachine.ThreadPool;
+import com.jbrisbin.netmachine.io.Buffer;
+import com.jbrisbin.netmachine.io.CompositeBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class FileTests {
+
+  private Path path;
+  private byte[] content;
+
+  @Before
+  public void setUp() throws Exception {
+    content = new byte[100 * 1000 + 7];
+    new Random(42).nextBytes(content);
+    path = Files.createTempFile("netmachine", ".tmp");
+    Files.write(path, content);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.delete(path);
+  }
+
+  @Test
+  public void testReadFullyDeliversEveryChunkInOrder() throws Exception {
+    List<Buffer> chunks = readFully(4096, 8);
+
+    // The reader never reuses a Buffer the read handler still holds, so all of them are intact at the end
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Buffer b : chunks) {
+      assertTrue(b.remaining() <= 4096);
+      byte[] bytes = new byte[b.remaining()];
+      b.byteBuffer().get(bytes);
+      out.write(bytes);
+      b.release();
+    }
+    assertEquals((content.length + 4095) / 4096, chunks.size());
+    assertArrayEquals(content, out.toByteArray());
+  }
+
+  @Test
+  public void testReadFullyOneChunkAtATime() throws Exception {
+    List<Buffer> chunks = readFully(content.length, 1);
+    assertEquals(1, chunks.size());
+    assertEquals(content.length, chunks.get(0).remaining());
+    chunks.get(0).release();
+  }
+
+  @Test
+  public void testMappedReadHandsOverEachWindow() throws Exception {
+    final List<Buffer> windows = new CopyOnWriteArrayList<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    File f = File.open(path, StandardOpenOption.READ)
+                 .mapped(true)
+                 .mapWindowSize(32 * 1024)
+                 .prefetch(true)
+                 .readHandler(new Handler<Buffer>() {
+                   @Override public void handle(Buffer b) {
+                     windows.add(b);
+                   }
+                 })
+                 .completionHandler(new Handler<Void>() {
+                   @Override public void handle(Void v) {
+                     done.countDown();
+                   }
+                 })
+                 .readFully();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(4, windows.size());
+
+    // Windows already handed over stay readable after the file is closed, until they're released
+    f.close();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Buffer b : windows) {
+      byte[] bytes = new byte[b.remaining()];
+      b.byteBuffer().get(bytes);
+      out.write(bytes);
+      assertTrue(b.release());
+    }
+    assertArrayEquals(content, out.toByteArray());
+  }
+
+  @Test
+  public void testWriteBehindCoalescesAndCompletesInOrder() throws Exception {
+    FileIoExecutor executor = new FileIoExecutor(2, 1024, FileIoExecutor.Saturation.BACKOFF, 1000,
+                                                 ThreadPool.threadFactory("test-file-"));
+    try {
+      File f = File.open(path, executor, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                   .writeBatchSize(4096)
+                   .maxWritesInFlight(2);
+      List<Integer> acknowledged = write(f);
+      assertEquals(writes(), acknowledged.size());
+      for (int i = 0; i < acknowledged.size(); i++) {
+        assertEquals(i, (int) acknowledged.get(i));
+      }
+      assertTrue(executor.latency(FileIoExecutor.Operation.WRITE).count() < writes());
+      assertArrayEquals(content, Files.readAllBytes(path));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testForcedWritesCompleteInOrder() throws Exception {
+    File f = File.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                 .writeBatchSize(8192)
+                 .forceWrites(true);
+    List<Integer> acknowledged = write(f);
+    assertEquals(writes(), acknowledged.size());
+    for (int i = 0; i < acknowledged.size(); i++) {
+      assertEquals(i, (int) acknowledged.get(i));
+    }
+    assertArrayEquals(content, Files.readAllBytes(path));
+  }
+
+  @Test
+  public void testRejectedForceFailsThePendingWrites() throws Exception {
+    // The write itself goes out, the force that follows it is turned away
+    final AtomicInteger accepted = new AtomicInteger(1);
+    ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                      new LinkedBlockingQueue<Runnable>()) {
+      @Override public void execute(Runnable task) {
+        if (accepted.getAndDecrement() <= 0) {
+          throw new RejectedExecutionException("Saturated");
+        }
+        super.execute(task);
+      }
+    };
+    try {
+      final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+      final AtomicInteger acknowledged = new AtomicInteger();
+      File f = File.open(path, executor, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                   .forceWrites(true)
+                   .failureHandler(new Handler<Throwable>() {
+                     @Override public void handle(Throwable t) {
+                       failures.offer(t);
+                     }
+                   });
+      f.writeHandler().write(Buffer.wrap("forced"), new Handler<Void>() {
+        @Override public void handle(Void v) {
+          acknowledged.incrementAndGet();
+        }
+      });
+      assertTrue(failures.poll(5, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+      assertEquals(0, f.pendingWrites.get());
+      assertEquals(0, acknowledged.get());
+
+      // Nothing is left going out, so closing it closes the channel straight away
+      f.close();
+      assertFalse(f.fileChannel.isOpen());
+      assertEquals("forced", new String(Files.readAllBytes(path)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCompositeWritesGoOutSegmentBySegment() throws Exception {
+    File f = File.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                 .writeBatchSize(4096);
+    final CountDownLatch closed = new CountDownLatch(1);
+    f.completionHandler(new Handler<Void>() {
+      @Override public void handle(Void v) {
+        closed.countDown();
+      }
+    });
+    // Segments bigger than a batch, smaller than one and empty, as a chunked request body arrives
+    int[] segments = {100, 0, 9000, 37, 5000};
+    for (int pos = 0, i = 0; pos < content.length; i++) {
+      int len = Math.min(content.length - pos, segments[i % segments.length]);
+      CompositeBuffer b = CompositeBuffer.wrap(ByteBuffer.wrap(content, pos, len / 2),
+                                               ByteBuffer.wrap(content, pos + len / 2, len - len / 2));
+      f.writeHandler().write(b, null);
+      pos += len;
+    }
+    f.close();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertArrayEquals(content, Files.readAllBytes(path));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadChunkSizeIsBounded() throws Exception {
+    File.open(path, StandardOpenOption.READ).readChunkSize(Buffer.MAX_BUFFER_SIZE + 1);
+  }
+
+  private List<Buffer> readFully(int chunkSize, int readAhead) throws Exception {
+    final List<Buffer> chunks = new CopyOnWriteArrayList<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    File.open(path, StandardOpenOption.READ)
+        .readChunkSize(chunkSize)
+        .readAhead(readAhead)
+        .readHandler(new Handler<Buffer>() {
+          @Override public void handle(Buffer b) {
+            chunks.add(b);
+          }
+        })
+        .completionHandler(new Handler<Void>() {
+          @Override public void handle(Void v) {
+            done.countDown();
+          }
+        })
+        .readFully();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    return chunks;
+  }
+
+  private int writes() {
+    // Mostly small writes, with one bigger than a batch every so often
+    int n = 0;
+    for (int pos = 0, i = 0; pos < content.length; i++) {
+      pos += (0 == i % 50 ? 10000 : 100 + i % 7);
+      n++;
+    }
+    return n;
+  }
+
+  private List<Integer> write(File f) throws Exception {
+    final List<Integer> acknowledged = new CopyOnWriteArrayList<>();
+    final CountDownLatch closed = new CountDownLatch(1);
+    f.completionHandler(new Handler<Void>() {
+      @Override public void handle(Void v) {
+        closed.countDown();
+      }
+    });
+    for (int pos = 0, i = 0; pos < content.length; i++) {
+      int len = Math.min(content.length - pos, (0 == i % 50 ? 10000 : 100 + i % 7));
+      Buffer b = new Buffer(len, true);
+      b.byteBuffer().put(content, pos, len).flip();
+      final int n = i;
+      f.writeHandler().write(b, new Handler<Void>() {
+        @Override public void handle(Void v) {
+          acknowledged.add(n);
+        }
+      });
+      pos += len;
+    }
+    f.close();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    return acknowledged;
+  }
+
+}
@@ -0,0 +1,67 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.jbrisbin.netmachine.ThreadPool;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class ExecutionTierTests {
+
+  @Test
+  public void testRefusesWorkOnceSaturated() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(1, ThreadPool.threadFactory("test-tier-"));
+    try {
+      ExecutionTier tier = new ExecutionTier(pool, 2);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch ran = new CountDownLatch(2);
+      Runnable blocked = new Runnable() {
+        @Override public void run() {
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          ran.countDown();
+        }
+      };
+
+      assertTrue(tier.execute(blocked));
+      assertTrue(tier.execute(blocked));
+      assertFalse(tier.execute(blocked));
+      assertEquals(2, tier.inFlight());
+      assertEquals(1, tier.rejected());
+
+      release.countDown();
+      assertTrue(ran.await(5, TimeUnit.SECONDS));
+      while (tier.inFlight() > 0) {
+        Thread.sleep(1);
+      }
+      assertTrue(tier.execute(blocked));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRefusesWorkTheExecutorRejects() {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    pool.shutdown();
+    ExecutionTier tier = new ExecutionTier(pool, 10);
+
+    assertFalse(tier.execute(new Runnable() {
+      @Override public void run() {
+      }
+    }));
+    assertEquals(0, tier.inFlight());
+    assertEquals(1, tier.rejected());
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jbrisbin.netmachine.Handler;
+import com.jbrisbin.netmachine.io.Buffer;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class HttpServerExecutionTests {
+
+  @Test
+  public void testSaturatedTierAnswers503AndDropsTheUpload() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    int port = freePort();
+    HttpServer server = new HttpServer()
+        .businessThreads(1)
+        .businessQueueSize(0)
+        .route(Method.PUT, "/upload", ExecutionPolicy.POOLED, new Handler<HttpRequest>() {
+          @Override public void handle(HttpRequest request) {
+            running.countDown();
+            try {
+              release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            request.reply(HttpResponse.noContent().complete());
+          }
+        });
+    server.listen("127.0.0.1", port).start();
+
+    Socket busy = send(port, "PUT /upload HTTP/1.1\r\nHost: x\r\nContent-Length: 0\r\n\r\n");
+    try {
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+
+      // The body keeps coming, but the connection is closed rather than read to the end
+      Socket turnedAway = send(port, "PUT /upload HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n" +
+          "5\r\nhello\r\n");
+      String response = readToClose(turnedAway);
+      assertTrue(response, response.startsWith("HTTP/1.1 503 "));
+      assertTrue(response, response.contains("Retry-After: 1"));
+      assertTrue(response, response.contains("Connection: close"));
+      assertEquals(1, server.rejectedRequests());
+    } finally {
+      release.countDown();
+      busy.close();
+    }
+  }
+
+  @Test
+  public void testVirtualHandlersFallBackToTheBusinessPool() throws Exception {
+    final AtomicReference<String> ranOn = new AtomicReference<>();
+    int port = freePort();
+    HttpServer server = new HttpServer()
+        .route("/where", ExecutionPolicy.VIRTUAL, new Handler<HttpRequest>() {
+          @Override public void handle(HttpRequest request) {
+            ranOn.set(Thread.currentThread().toString());
+            request.reply(HttpResponse.noContent().complete());
+          }
+        });
+    server.listen("127.0.0.1", port).start();
+
+    String response = readToClose(send(port, "GET /where HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n"));
+    assertTrue(response, response.startsWith("HTTP/1.1 204 "));
+    if (virtualThreadsAvailable()) {
+      assertTrue(ranOn.get(), ranOn.get().startsWith("VirtualThread"));
+    } else {
+      assertTrue(ranOn.get(), ranOn.get().contains("netmachine-business-"));
+    }
+  }
+
+  @Test
+  public void testBodyWrittenToHeadResponseIsDropped() throws Exception {
+    int port = freePort();
+    HttpServer server = new HttpServer()
+        .route("/page", new Handler<HttpRequest>() {
+          @Override public void handle(HttpRequest request) {
+            HttpResponse response = HttpResponse.ok();
+            response.maxPendingWrites(2);
+            request.reply(response);
+            // Written as if for a GET, more times than could ever queue up waiting
+            for (int i = 0; i < 5; i++) {
+              response.write(Buffer.wrap("ignored"));
+            }
+            response.complete();
+          }
+        });
+    server.listen("127.0.0.1", port).start();
+
+    String response = readToClose(send(port, "HEAD /page HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n"));
+    assertTrue(response, response.startsWith("HTTP/1.1 200 "));
+    assertFalse(response, response.contains("ignored"));
+  }
+
+  private static boolean virtualThreadsAvailable() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static Socket send(int port, String request) throws IOException {
+    Socket socket = new Socket("127.0.0.1", port);
+    socket.setSoTimeout(5000);
+    socket.getOutputStream().write(request.getBytes());
+    return socket;
+  }
+
+  private static String readToClose(Socket socket) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      InputStream in = socket.getInputStream();
+      byte[] b = new byte[4096];
+      int n;
+      while ((n = in.read(b)) > 0) {
+        out.write(b, 0, n);
+      }
+      return out.toString();
+    } finally {
+      socket.close();
+    }
+  }
+
+}
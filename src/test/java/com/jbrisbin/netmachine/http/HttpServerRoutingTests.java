@@ -0,0 +1,41 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumSet;
+
+import com.jbrisbin.netmachine.Handler;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class HttpServerRoutingTests {
+
+  private static final Handler<HttpRequest> NOOP = new Handler<HttpRequest>() {
+    @Override public void handle(HttpRequest request) {
+    }
+  };
+
+  @Test
+  public void testAllowListsEveryMatchingPattern() {
+    HttpServer server = new HttpServer()
+        .route(Method.GET, "/users/{id}", NOOP)
+        .route(Method.DELETE, "/users/me", NOOP);
+
+    assertEquals("GET, DELETE", server.allowHeader("/users/me"));
+    assertEquals("GET", server.allowHeader("/users/42"));
+    assertNull(server.allowHeader("/groups/1"));
+  }
+
+  @Test
+  public void testAllowMergesMethodsOfOnePattern() {
+    HttpServer server = new HttpServer()
+        .route(EnumSet.of(Method.GET, Method.HEAD), "/files/**", NOOP)
+        .route(Method.PUT, "/files/{name}", NOOP);
+
+    assertEquals("GET, HEAD, PUT", server.allowHeader("/files/readme"));
+    assertEquals("GET, HEAD", server.allowHeader("/files/dir/a.txt"));
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class NettyRequestHeadersTests {
+
+  private static NettyRequestHeaders headers() {
+    DefaultHttpRequest nettyRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+    nettyRequest.addHeader("Host", "localhost");
+    nettyRequest.addHeader("Accept", "text/html");
+    nettyRequest.addHeader("Accept", "application/json");
+    return new NettyRequestHeaders(nettyRequest);
+  }
+
+  @Test
+  public void testLookupsDoNotCopy() {
+    NettyRequestHeaders headers = headers();
+
+    assertEquals("localhost", headers.get("host"));
+    assertEquals(Arrays.asList("text/html", "application/json"), headers.getAll("ACCEPT"));
+    assertTrue(headers.contains("Accept"));
+    assertFalse(headers.isEmpty());
+    assertFalse(headers.isMaterialized());
+  }
+
+  @Test
+  public void testChangesCopyEveryHeader() {
+    NettyRequestHeaders headers = headers();
+    headers.set("Host", "example.com");
+
+    assertTrue(headers.isMaterialized());
+    assertEquals(3, headers.size());
+    assertEquals("example.com", headers.get("Host"));
+    assertEquals(Arrays.asList("text/html", "application/json"), headers.getAll("Accept"));
+  }
+
+}
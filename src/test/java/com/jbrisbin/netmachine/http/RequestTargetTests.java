@@ -0,0 +1,82 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class RequestTargetTests {
+
+  @Test
+  public void testOriginForm() {
+    RequestTarget target = RequestTarget.parse("http", "localhost:8080", "/files/a%20b.txt?x=1&y=%2F");
+
+    assertEquals("/files/a%20b.txt", target.rawPath());
+    assertEquals("/files/a b.txt", target.path());
+    assertEquals("x=1&y=%2F", target.rawQuery());
+    assertEquals("localhost", target.host());
+    assertEquals(8080, target.port());
+
+    URI uri = target.toURI();
+    assertEquals(URI.create("http://localhost:8080/files/a%20b.txt?x=1&y=%2F"), uri);
+    assertEquals(uri.getPath(), target.path());
+    assertEquals(uri.getRawQuery(), target.rawQuery());
+  }
+
+  @Test
+  public void testAbsoluteAndOtherForms() {
+    RequestTarget target = RequestTarget.parse("http", "ignored", "HTTP://user@[::1]:81?q");
+    assertEquals("http", target.scheme());
+    assertEquals("user@[::1]:81", target.authority());
+    assertEquals("[::1]", target.host());
+    assertEquals(81, target.port());
+    assertEquals("/", target.rawPath());
+    assertEquals("q", target.rawQuery());
+
+    target = RequestTarget.parse("http", "example.com", "*");
+    assertEquals("*", target.rawPath());
+    assertEquals(-1, target.port());
+
+    target = RequestTarget.parse("http", null, "example.com:443");
+    assertEquals("example.com", target.host());
+    assertEquals(443, target.port());
+    assertNull(target.rawQuery());
+  }
+
+  @Test
+  public void testQueryTakesWhatClientsSend() {
+    RequestTarget target = RequestTarget.parse("http", "localhost", "/search?a[]=1&b[0]=x&c={|}");
+    assertEquals("a[]=1&b[0]=x&c={|}", target.rawQuery());
+    assertEquals("a[]=1&b[0]=x&c={|}", target.toURI().getQuery());
+
+    // Raw UTF-8 bytes come off the request line a char per byte
+    String raw = new String("q=caf\u00e9".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    target = RequestTarget.parse("http", "localhost", "/search?" + raw);
+    assertEquals(raw, target.rawQuery());
+    assertEquals("/search", target.toURI().getPath());
+  }
+
+  @Test
+  public void testRejectsMalformedTargets() {
+    String[] targets = {"", "/a b", "/%zz", "/a%2", "/a#frag", "/?a b", "/?a=\u0001", "/?a=1#frag",
+                        "relative/path"};
+    for (String t : targets) {
+      try {
+        RequestTarget.parse("http", "localhost", t);
+        fail("Expected '" + t + "' to be rejected");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    try {
+      RequestTarget.parse("http", "local host", "/");
+      fail("Expected a bad Host to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.jbrisbin.netmachine.http;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.Channel;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class ResponseSequencerTests {
+
+  @Test
+  public void testResumeRacingSuspendLeavesTheChannelReadable() throws Exception {
+    final CountDownLatch suspending = new CountDownLatch(1);
+    final boolean[] readable = {true};
+    // A channel that takes its time to stop reading, so the head can finish while it does
+    Channel channel = (Channel) Proxy.newProxyInstance(
+        Channel.class.getClassLoader(),
+        new Class<?>[]{Channel.class},
+        new InvocationHandler() {
+          @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+              case "isReadable":
+                synchronized (readable) {
+                  return readable[0];
+                }
+              case "isWritable":
+                return true;
+              case "setReadable":
+                boolean r = (Boolean) args[0];
+                if (!r) {
+                  suspending.countDown();
+                  Thread.sleep(100);
+                }
+                synchronized (readable) {
+                  readable[0] = r;
+                }
+                return null;
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              case "equals":
+                return proxy == args[0];
+              default:
+                return null;
+            }
+          }
+        });
+
+    final ResponseSequencer sequencer = new ResponseSequencer(channel, 1, 64 * 1024);
+    ResponseSequencer.Slot head = sequencer.next();
+    Thread reader = new Thread() {
+      @Override public void run() {
+        // Goes over the depth limit and suspends reading
+        sequencer.next();
+      }
+    };
+    reader.start();
+    assertTrue(suspending.await(5, TimeUnit.SECONDS));
+    // The handler of the first request finishes on another thread while the channel is being suspended
+    head.finish(false);
+    reader.join(5000);
+
+    assertEquals(1, sequencer.depth());
+    synchronized (readable) {
+      assertTrue("Reading was left suspended", readable[0]);
+    }
+  }
+
+}
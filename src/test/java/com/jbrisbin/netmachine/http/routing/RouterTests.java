@@ -0,0 +1,98 @@
+package com.jbrisbin.netmachine.http.routing;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class RouterTests {
+
+  private static Router<String> router(String... patterns) {
+    Router<String> router = new Router<>();
+    for (String pattern : patterns) {
+      router.add(new Route<>(new UriMatcher(pattern), pattern));
+    }
+    return router;
+  }
+
+  private static String find(Router<String> router, String path) {
+    Route<String> r = router.find(path);
+    return (null != r ? r.resource() : null);
+  }
+
+  @Test
+  public void testLiteralAndVariableSegments() {
+    Router<String> router = router("/users", "/users/{id}", "/users/{id}/posts");
+
+    assertEquals("/users", find(router, "/users"));
+    assertEquals("/users/{id}", find(router, "/users/42"));
+    assertEquals("/users/{id}/posts", find(router, "/users/42/posts"));
+    assertNull(find(router, "/users/42/comments"));
+    // Variables don't match across dots
+    assertNull(find(router, "/users/42.json"));
+  }
+
+  @Test
+  public void testSplats() {
+    Router<String> router = router("/static/**", "/{bucket}/{key}**");
+
+    assertEquals("/static/**", find(router, "/static/css/site.css"));
+    assertEquals("/static/**", find(router, "/static/"));
+    assertNull(find(router, "/static"));
+    assertEquals("/{bucket}/{key}**", find(router, "/photos/2011/06/beach.jpg"));
+  }
+
+  @Test
+  public void testFirstRegisteredWins() {
+    assertEquals("/{a}/{b}", find(router("/{a}/{b}", "/users/{id}", "/users/me"), "/users/me"));
+    assertEquals("/users/me", find(router("/users/me", "/users/{id}"), "/users/me"));
+    assertEquals("/**", find(router("/**", "/users/me"), "/users/me"));
+  }
+
+  @Test
+  public void testRegexFallbackKeepsRegistrationOrder() {
+    Router<String> router = router("/files/{name}.json", "/files/{name}", "/**/edit", "/files/**");
+
+    assertEquals("/files/{name}.json", find(router, "/files/report.json"));
+    assertEquals("/files/{name}", find(router, "/files/report"));
+    assertEquals("/**/edit", find(router, "/files/a/b/edit"));
+    assertEquals("/files/**", find(router, "/files/a/b"));
+  }
+
+  @Test
+  public void testExtractsPathParameters() {
+    Router<String> router = router("/{bucket}/{key}**", "/files/{name}.json");
+
+    RouteMatch<String> m = router.match("/photos/2011/beach.jpg");
+    assertEquals("/{bucket}/{key}**", m.resource());
+    assertEquals("photos", m.pathParameters().get("bucket"));
+    assertEquals("2011/beach.jpg", m.pathParameters().get("key"));
+    assertEquals(2, m.pathParameters().size());
+
+    router = router("/files/{name}.json", "/users/{id}/posts/{post}");
+    assertEquals("report", router.match("/files/report.json").pathParameters().get("name"));
+    m = router.match("/users/42/posts/7");
+    assertEquals("42", m.pathParameters().get("id"));
+    assertEquals("7", m.pathParameters().get("post"));
+  }
+
+  @Test
+  public void testAgreesWithUriMatcher() {
+    String[] patterns = {"/", "/{a}", "/a/{b}/c", "/a/**", "/{x}/{y}**", "/a.b", "/files/{name}.txt"};
+    String[] paths = {"/", "", "/a", "/a/", "/a/b/c", "/a/b.c/c", "/x/y/z", "/a.b", "/axb", "/files/f.txt", "//"};
+    for (String pattern : patterns) {
+      Router<String> router = router(pattern);
+      UriMatcher matcher = new UriMatcher(pattern);
+      for (String path : paths) {
+        RouteMatch<String> m = router.match(path);
+        assertEquals(pattern + " vs " + path, matcher.matches(path), null != m);
+        if (null != m) {
+          assertEquals(pattern + " vs " + path, matcher.match(path), m.pathParameters());
+        }
+      }
+    }
+  }
+
+}
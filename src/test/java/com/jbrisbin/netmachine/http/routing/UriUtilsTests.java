@@ -0,0 +1,151 @@
+package com.jbrisbin.netmachine.http.routing;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class UriUtilsTests {
+
+  private static final String[] SAMPLES = {
+      "", "plain", "/a/b/c.txt", "with space", "a+b=c&d", "100%", "semi;colon:at@", "[brackets]",
+      "caf\u00e9", "\u65e5\u672c\u8a9e", "emoji \ud83d\ude00", "tab\tnew\nline", "~user/_x-y.z", "q?x#frag"
+  };
+
+  @Test
+  public void testEncodingMatchesBitSetImplementation() throws Exception {
+    for (String s : SAMPLES) {
+      assertEquals(s, Legacy.encode(s, "UTF-8", Legacy.PATH), UriUtils.encodePath(s, "UTF-8"));
+      assertEquals(s, Legacy.encode(s, "UTF-8", Legacy.QUERY_PARAM), UriUtils.encodeQueryParam(s, "UTF-8"));
+      assertEquals(s, Legacy.encode(s, "UTF-8", Legacy.HOST), UriUtils.encodeHost(s, "UTF-8"));
+      assertEquals(s, Legacy.encode(s, "ISO-8859-1", Legacy.PATH), UriUtils.encodePath(s, "ISO-8859-1"));
+      assertEquals(s, Legacy.encode(s, "UTF-16", Legacy.QUERY_PARAM), UriUtils.encodeQueryParam(s, "UTF-16"));
+      assertEquals(s, Legacy.encode(s, "UTF-8", Legacy.PATH), UriUtils.encode(s, UriUtils.Component.PATH).toString());
+    }
+  }
+
+  @Test
+  public void testDecodingMatchesBitSetImplementation() throws Exception {
+    for (String s : SAMPLES) {
+      String encoded = UriUtils.encodeQueryParam(s, "UTF-8");
+      assertEquals(s, Legacy.decode(encoded, "UTF-8"), UriUtils.decode(encoded, "UTF-8"));
+      assertEquals(s, s, UriUtils.decode(encoded).toString());
+      assertEquals(s, Legacy.decode(encoded, "ISO-8859-1"), UriUtils.decode(encoded, "ISO-8859-1"));
+    }
+  }
+
+  @Test
+  public void testReturnsInputWhenNothingToDo() throws Exception {
+    String s = "/already/fine-as_is.txt";
+    assertSame(s, UriUtils.encodePath(s, "UTF-8"));
+    assertSame(s, UriUtils.encode(s, UriUtils.Component.PATH));
+    assertSame(s, UriUtils.decode(s, "UTF-8"));
+    assertSame(s, UriUtils.decode(s));
+    assertFalse(UriUtils.needsEncoding(s, UriUtils.Component.PATH));
+    assertTrue(UriUtils.needsEncoding(s, UriUtils.Component.SEGMENT));
+  }
+
+  @Test
+  public void testByteBuffers() {
+    Charset utf8 = Charset.forName("UTF-8");
+    ByteBuffer src = ByteBuffer.wrap("a b/\u00e9".getBytes(utf8));
+    ByteBuffer encoded = ByteBuffer.allocate(64);
+    UriUtils.encode(src, UriUtils.Component.SEGMENT, encoded);
+    encoded.flip();
+    assertEquals("a%20b%2F%C3%A9", utf8.decode(encoded.duplicate()).toString());
+
+    // Decoding never gets ahead of itself, so it can be done in place
+    ByteBuffer dst = encoded.duplicate();
+    int len = UriUtils.decode(encoded, dst);
+    assertEquals("a b/\u00e9", new String(encoded.array(), 0, len, utf8));
+  }
+
+  @Test
+  public void testRejectsBadEscapes() {
+    for (String s : new String[]{"%", "%4", "a%zz"}) {
+      try {
+        UriUtils.decode(s);
+        fail("Expected '" + s + "' to be rejected");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  /**
+   * The {@link BitSet} based implementation {@link UriUtils} used to have, kept to check the new one against.
+   */
+  private static class Legacy {
+    static final BitSet PATH = new BitSet(256);
+    static final BitSet HOST = new BitSet(256);
+    static final BitSet QUERY_PARAM = new BitSet(256);
+
+    static {
+      BitSet unreserved = new BitSet(256);
+      for (char c : "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-._~".toCharArray()) {
+        unreserved.set(c);
+      }
+      BitSet subdelims = new BitSet(256);
+      for (char c : "!$&'()*+,;=".toCharArray()) {
+        subdelims.set(c);
+      }
+      HOST.or(unreserved);
+      HOST.or(subdelims);
+      PATH.or(HOST);
+      PATH.set(':');
+      PATH.set('@');
+      PATH.set('/');
+      QUERY_PARAM.or(PATH);
+      QUERY_PARAM.set('?');
+      QUERY_PARAM.clear('=');
+      QUERY_PARAM.clear('+');
+      QUERY_PARAM.clear('&');
+    }
+
+    static String encode(String source, String encoding, BitSet notEncoded) throws UnsupportedEncodingException {
+      byte[] bytes = source.getBytes(encoding);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length * 2);
+      for (byte aByte : bytes) {
+        int b = aByte;
+        if (b < 0) {
+          b += 256;
+        }
+        if (notEncoded.get(b)) {
+          bos.write(b);
+        } else {
+          bos.write('%');
+          bos.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+          bos.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        }
+      }
+      return new String(bos.toByteArray(), "US-ASCII");
+    }
+
+    static String decode(String source, String encoding) throws UnsupportedEncodingException {
+      int length = source.length();
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(length);
+      boolean changed = false;
+      for (int i = 0; i < length; i++) {
+        int ch = source.charAt(i);
+        if (ch == '%') {
+          int u = Character.digit(source.charAt(i + 1), 16);
+          int l = Character.digit(source.charAt(i + 2), 16);
+          bos.write((char) ((u << 4) + l));
+          i += 2;
+          changed = true;
+        } else {
+          bos.write(ch);
+        }
+      }
+      return changed ? new String(bos.toByteArray(), encoding) : source;
+    }
+  }
+
+}
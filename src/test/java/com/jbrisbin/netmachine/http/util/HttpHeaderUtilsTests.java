@@ -0,0 +1,51 @@
+package com.jbrisbin.netmachine.http.util;
+
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class HttpHeaderUtilsTests {
+
+  @Test
+  public void testFormatsAndParsesRfc1123Dates() {
+    SimpleDateFormat rfc1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    rfc1123.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+    Random random = new Random(1994);
+    for (int i = 0; i < 10000; i++) {
+      long millis = (random.nextLong() % (200L * 365 * 86400 * 1000)) / 1000 * 1000;
+      String expected = rfc1123.format(new Date(millis));
+      assertEquals(expected, HttpHeaderUtils.formatDate(millis));
+      assertEquals(expected, millis, HttpHeaderUtils.parseDateMillis(expected));
+    }
+  }
+
+  @Test
+  public void testParsesObsoleteDates() {
+    long expected = 784111777000L;
+    assertEquals(expected, HttpHeaderUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime());
+    assertEquals(expected, HttpHeaderUtils.parseDate("Sunday, 06-Nov-94 08:49:37 GMT").getTime());
+    assertEquals(expected, HttpHeaderUtils.parseDate("Sun Nov  6 08:49:37 1994").getTime());
+    assertNull(HttpHeaderUtils.parseDate("yesterday"));
+  }
+
+  @Test
+  public void testCachesCurrentDate() {
+    String date = HttpHeaderUtils.currentDate();
+    long parsed = HttpHeaderUtils.parseDateMillis(date);
+    assertTrue(Math.abs(System.currentTimeMillis() - parsed) < 2000);
+    // The clock may tick over between calls
+    long fromBytes = HttpHeaderUtils.parseDateMillis(new String(HttpHeaderUtils.currentDateBytes()));
+    assertTrue(fromBytes - parsed >= 0 && fromBytes - parsed <= 1000);
+  }
+
+}
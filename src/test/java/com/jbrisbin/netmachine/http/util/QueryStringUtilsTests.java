@@ -0,0 +1,64 @@
+package com.jbrisbin.netmachine.http.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import com.jbrisbin.netmachine.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class QueryStringUtilsTests {
+
+  @Test
+  public void testFindsSingleParameters() {
+    String query = "a=1&b=two+words&c&caf%C3%A9=%E2%82%AC&a=2";
+
+    assertEquals("1", QueryStringUtils.param(query, "a"));
+    assertEquals("two words", QueryStringUtils.param(query, "b"));
+    assertEquals("", QueryStringUtils.param(query, "c"));
+    assertEquals("\u20ac", QueryStringUtils.param(query, "caf\u00e9"));
+    assertEquals(Arrays.asList("1", "2"), QueryStringUtils.params(query, "a"));
+    assertNull(QueryStringUtils.param(query, "d"));
+    assertNull(QueryStringUtils.params(query, "d"));
+    assertNull(QueryStringUtils.param(null, "a"));
+  }
+
+  @Test
+  public void testParsesLikeNetty() {
+    String[] queries = {"a=1&b=2&a=3", "x=a%20b+c&y=%2B", "flag&k=v", "k=&&j=1", "n=%E6%97%A5%E6%9C%AC"};
+    for (String query : queries) {
+      assertEquals(query, new QueryStringDecoder("/?" + query).getParameters(), QueryStringUtils.parse(query));
+    }
+  }
+
+  @Test
+  public void testRejectsBadEscapes() {
+    try {
+      QueryStringUtils.param("a=%4", "a");
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      QueryStringUtils.param("a=%zz", "a");
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testRequestParsesLazily() {
+    HttpRequest request = new HttpRequest().query("q=netmachine&page=2");
+
+    assertEquals("2", request.param("page"));
+    assertEquals("none", request.paramOr("sort", "none"));
+
+    request.param("page", "3");
+    assertEquals(Arrays.asList("2", "3"), request.params("page"));
+    assertEquals("netmachine", request.param("q"));
+  }
+
+}
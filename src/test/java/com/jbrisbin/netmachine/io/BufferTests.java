@@ -0,0 +1,160 @@
+package com.jbrisbin.netmachine.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class BufferTests {
+
+  @Test
+  public void testPoolRecyclesBySizeClass() {
+    BufferPool pool = new BufferPool(512, 64 * 1024, 2, 2, false);
+    ByteBuffer b = pool.acquire(600);
+    assertEquals(1024, b.capacity());
+    assertTrue(b.isDirect());
+    pool.recycle(b);
+
+    assertSame(b, pool.acquire(1000));
+    assertEquals(1, pool.threadCacheHits());
+    assertEquals(1, pool.misses());
+
+    assertFalse(pool.isPooled(128 * 1024));
+    assertEquals(128 * 1024, pool.acquire(128 * 1024).capacity());
+    assertEquals(1, pool.unpooled());
+  }
+
+  @Test
+  public void testPoolOverflowsToSharedCacheThenDiscards() {
+    BufferPool pool = new BufferPool(512, 4096, 1, 1, false);
+    pool.recycle(pool.acquire(512));
+    pool.recycle(pool.acquire(512));
+    pool.recycle(ByteBuffer.allocateDirect(512));
+    pool.recycle(ByteBuffer.allocateDirect(512));
+
+    assertEquals(1, pool.sharedCacheSize());
+    assertEquals(1, pool.discarded());
+  }
+
+  @Test
+  public void testReleaseGivesMemoryBack() {
+    Buffer b = new Buffer(100, true);
+    b.append(new byte[100]);
+    assertEquals(0, b.remaining());
+
+    b.retain();
+    assertFalse(b.release());
+    assertNotNull(b.byteBuffer());
+    assertTrue(b.release());
+    assertNull(b.byteBuffer());
+    assertEquals(0, b.refCnt());
+
+    try {
+      b.release();
+      fail("Released twice");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testWrappedMemoryIsNotRecycled() {
+    ByteBuffer bb = ByteBuffer.allocate(16);
+    Buffer b = new Buffer(bb);
+    assertTrue(b.release());
+    assertSame(bb, b.byteBuffer());
+  }
+
+  @Test
+  public void testDuplicateKeepsSharedMemoryAlive() {
+    Buffer b = Buffer.wrap("shared");
+    ByteBuffer memory = b.byteBuffer();
+    Buffer dup = new Buffer(b);
+    assertEquals(2, b.refCnt());
+
+    assertFalse(b.release());
+    assertSame(memory, b.byteBuffer());
+    assertEquals("shared", dup.string());
+
+    assertTrue(dup.release());
+    assertEquals(0, b.refCnt());
+    assertNull(b.byteBuffer());
+  }
+
+  @Test
+  public void testClearLeavesSharedMemoryAlone() {
+    Buffer b = Buffer.wrap("shared");
+    Buffer dup = new Buffer(b);
+    b.clear();
+    assertNull(b.byteBuffer());
+    assertEquals("shared", dup.string());
+
+    dup.clear();
+    assertEquals(1, b.refCnt());
+    assertTrue(b.release());
+  }
+
+  @Test
+  public void testAppendsCompositeSegmentBySegment() {
+    CompositeBuffer composite = CompositeBuffer.wrap(ByteBuffer.wrap("Hello ".getBytes()),
+                                                     ByteBuffer.wrap("World".getBytes()));
+    Buffer b = new Buffer();
+    b.append("> ").append(composite).flip();
+    assertEquals("> Hello World", b.string());
+    assertEquals(0, composite.remaining());
+    assertTrue(b.release());
+  }
+
+  @Test
+  public void testGrowsGeometrically() {
+    Buffer b = new Buffer();
+    byte[] chunk = new byte[1000];
+    int capacity = 0;
+    int resizes = 0;
+    for (int i = 0; i < 1000; i++) {
+      b.append(chunk);
+      if (b.capacity() != capacity) {
+        capacity = b.capacity();
+        resizes++;
+      }
+    }
+    assertEquals(1000 * 1000, b.position());
+    assertTrue("Resized " + resizes + " times", resizes < 10);
+  }
+
+  @Test
+  public void testCompositeChainsSegmentsWithoutCopying() throws IOException {
+    ByteBuffer hello = ByteBuffer.wrap("Hello ".getBytes());
+    CompositeBuffer b = new CompositeBuffer(4);
+    b.addSegment(hello).append("World").append((byte) '!');
+    assertEquals(3, b.segments());
+    assertEquals(12, b.position());
+    assertEquals("lo Wor", b.slice(3, 6).flip().string());
+    try {
+      b.slice(10, 4);
+      fail("Sliced past the end");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    b.flip();
+    assertEquals(12, b.remaining());
+    assertEquals("World!", b.slice(6, 6).flip().string());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(12, b.transferTo(Channels.newChannel(out)));
+    assertEquals("Hello World!", new String(out.toByteArray()));
+    assertEquals(0, b.remaining());
+
+    b.rewind();
+    assertEquals("Hello World!", b.string());
+    assertTrue(b.release());
+    assertEquals(0, b.segments());
+  }
+
+}
@@ -0,0 +1,44 @@
+package com.jbrisbin.netmachine.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class LatencyHistogramTests {
+
+  @Test
+  public void testEmptyHistogramReportsZero() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.count());
+    assertEquals(0, h.mean(TimeUnit.NANOSECONDS));
+    assertEquals(0, h.percentile(99, TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void testPercentilesFallInTheRightBucket() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      h.record(1000);
+    }
+    h.record(1000000);
+
+    assertEquals(100, h.count());
+    assertEquals(1000000, h.max(TimeUnit.NANOSECONDS));
+    // 1000ns lands in the 512-1023ns bucket
+    assertEquals(1023, h.percentile(50, TimeUnit.NANOSECONDS));
+    assertEquals(1023, h.percentile(99, TimeUnit.NANOSECONDS));
+    assertEquals(1000000, h.percentile(100, TimeUnit.NANOSECONDS));
+    assertEquals((99 * 1000 + 1000000) / 100, h.mean(TimeUnit.NANOSECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPercentileMustBeInRange() {
+    new LatencyHistogram().percentile(101, TimeUnit.NANOSECONDS);
+  }
+
+}
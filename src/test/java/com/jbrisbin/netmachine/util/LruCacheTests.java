@@ -0,0 +1,49 @@
+package com.jbrisbin.netmachine.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Brisbin <jon@jbrisbin.com>
+ */
+public class LruCacheTests {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "1").put("b", "2");
+    assertEquals("1", cache.get("a"));
+    cache.put("c", "3");
+
+    assertNull(cache.get("b"));
+    assertEquals("1", cache.get("a"));
+    assertEquals("3", cache.get("c"));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictions());
+    assertEquals(3, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  public void testStaysBounded() {
+    LruCache<Integer, Integer> cache = new LruCache<>(1000);
+    for (int i = 0; i < 100000; i++) {
+      cache.put(i, i);
+    }
+    assertTrue(cache.size() <= 1000);
+    assertEquals(100000 - cache.size(), cache.evictions());
+  }
+
+  @Test
+  public void testDisabled() {
+    LruCache<String, String> cache = new LruCache<>(0);
+    cache.put("a", "1");
+
+    assertFalse(cache.isEnabled());
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.misses());
+  }
+
+}